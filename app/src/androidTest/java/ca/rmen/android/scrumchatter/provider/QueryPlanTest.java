@@ -0,0 +1,192 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the plans of the queries which the app runs through {@link ScrumChatterProvider}: none of them may scan a
+ * table which grows with the meetings.  Only the team and member tables, which have a row per team and per team
+ * member, may be scanned.
+ *
+ * The exports which read all the meetings, or all the meeting members, scan these tables by design, and aren't
+ * checked.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanTest {
+
+    private static final String TEST_DATABASE_PREFIX = "test_";
+
+    // "SCAN TABLE meeting" up to SQLite 3.35, "SCAN meeting" afterwards.
+    private static final Pattern SCAN_PATTERN = Pattern.compile("^SCAN (?:TABLE )?(\\w+)");
+
+    private static final Set<String> SMALL_TABLES = new HashSet<>(Arrays.asList(TeamColumns.TABLE_NAME, MemberColumns.TABLE_NAME));
+
+    private static final long TEAM_ID = 1;
+    private static final long MEETING_ID = 5;
+    private static final long MEMBER_ID = 3;
+
+    private Context mContext;
+    private ScrumChatterDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mContext = new TestContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteDatabase(ScrumChatterDatabase.DATABASE_NAME);
+        mDatabase = new ScrumChatterDatabase(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+        mContext.deleteDatabase(ScrumChatterDatabase.DATABASE_NAME);
+    }
+
+    @Test
+    public void testTeams() {
+        assertNoScan(TeamColumns.CONTENT_URI, null, null);
+        assertNoScan(Uri.withAppendedPath(TeamColumns.CONTENT_URI, String.valueOf(TEAM_ID)), null, null);
+    }
+
+    @Test
+    public void testMeetings() {
+        // The meeting list, one page at a time.
+        assertNoScan(MeetingColumns.getTeamContentUri(TEAM_ID, 20), null, MeetingColumns.PAGE_ORDER);
+        assertNoScan(MeetingColumns.getTeamContentUri(TEAM_ID, 20), MeetingColumns.PAGE_AFTER_SELECTION, MeetingColumns.PAGE_ORDER);
+        // The meeting charts.
+        assertNoScan(MeetingColumns.getTeamContentUri(TEAM_ID), null, MeetingColumns.MEETING_DATE);
+        // A single meeting.
+        assertNoScan(Uri.withAppendedPath(MeetingColumns.CONTENT_URI, String.valueOf(MEETING_ID)), null, null);
+    }
+
+    @Test
+    public void testMeetingMembers() {
+        Uri meetingUri = Uri.withAppendedPath(MeetingMemberColumns.CONTENT_URI, String.valueOf(MEETING_ID));
+        // A meeting in progress, and a finished meeting.
+        assertNoScan(meetingUri, null, MemberColumns.NAME + " COLLATE NOCASE");
+        assertNoScan(meetingUri, MeetingMemberColumns.SELECTION_TALKED, MeetingMemberColumns.DURATION + " DESC");
+        // The meeting charts.
+        assertNoScan(MeetingMemberColumns.getTeamContentUri(TEAM_ID), MeetingMemberColumns.SELECTION_TALKED,
+                MeetingMemberColumns.MEETING_ID + ", " + MemberColumns.NAME + " DESC");
+    }
+
+    @Test
+    public void testMembers() {
+        // The member list and charts.
+        assertNoScan(MemberStatsColumns.getTeamContentUri(TEAM_ID), MemberColumns.DELETED + "=0 ", MemberColumns.NAME + " COLLATE NOCASE");
+        assertNoScan(MemberStatsColumns.getTeamContentUri(TEAM_ID), MemberColumns.DELETED + "=0 ",
+                MemberStatsColumns.AVG_DURATION + " DESC, " + MemberColumns.NAME + " ASC ");
+        assertNoScan(MemberStatsColumns.CONTENT_URI, null, null);
+        assertNoScan(Uri.withAppendedPath(MemberColumns.CONTENT_URI, String.valueOf(MEMBER_ID)), null, null);
+    }
+
+    @Test
+    public void testMembersOfATeam() {
+        // These queries only read the members of one team: they may not scan the member table either.
+        assertNoScan(MemberStatsColumns.getTeamContentUri(TEAM_ID), MemberColumns.DELETED + "=0 ", MemberColumns.NAME + " COLLATE NOCASE",
+                MemberColumns.TABLE_NAME);
+        assertNoScan(MemberColumns.CONTENT_URI, MemberColumns.NAME + "=? AND " + MemberColumns.TEAM_ID + "=?", null,
+                MemberColumns.TABLE_NAME);
+    }
+
+    @Test
+    public void testSpeakingEvents() {
+        assertNoScan(Uri.withAppendedPath(SpeakingEventColumns.CONTENT_URI, String.valueOf(MEETING_ID)), null, null);
+    }
+
+    /**
+     * @param searchedTables small tables which the query may not scan either.
+     */
+    private void assertNoScan(Uri uri, String selection, String sortOrder, String... searchedTables) {
+        String sql = ScrumChatterProvider.buildQuery(uri, selection, sortOrder);
+        List<String> plan = explainQueryPlan(sql);
+        for (String detail : plan) {
+            Matcher matcher = SCAN_PATTERN.matcher(detail);
+            if (!matcher.find()) continue;
+            String table = matcher.group(1);
+            boolean allowed = SMALL_TABLES.contains(table) && !Arrays.asList(searchedTables).contains(table);
+            assertTrue("The query of " + uri + " scans " + table + ": " + sql + ", plan: " + plan, allowed);
+        }
+    }
+
+    private List<String> explainQueryPlan(String sql) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = mDatabase.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) plan.add(cursor.getString(detailIndex));
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    /**
+     * Opens the databases with a prefix, so the test doesn't touch the database of the app.
+     */
+    private static class TestContext extends ContextWrapper {
+        TestContext(Context base) {
+            super(base);
+        }
+
+        @Override
+        public File getDatabasePath(String name) {
+            return super.getDatabasePath(TEST_DATABASE_PREFIX + name);
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory) {
+            return super.openOrCreateDatabase(TEST_DATABASE_PREFIX + name, mode, factory);
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory, DatabaseErrorHandler errorHandler) {
+            return super.openOrCreateDatabase(TEST_DATABASE_PREFIX + name, mode, factory, errorHandler);
+        }
+
+        @Override
+        public boolean deleteDatabase(String name) {
+            return super.deleteDatabase(TEST_DATABASE_PREFIX + name);
+        }
+    }
+}
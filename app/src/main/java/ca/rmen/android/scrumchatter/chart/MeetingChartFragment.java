@@ -101,7 +101,7 @@ public class MeetingChartFragment extends Fragment {
                     MemberColumns.NAME,
                     MeetingMemberColumns.DURATION,
                     MeetingMemberColumns.TALK_START_TIME};
-            String selection = MeetingMemberColumns.DURATION + ">0";
+            String selection = MeetingMemberColumns.SELECTION_TALKED;
             String orderBy = MeetingMemberColumns.DURATION + " DESC";
 
             Uri uri = Uri.withAppendedPath(MeetingMemberColumns.CONTENT_URI, String.valueOf(meetingId));
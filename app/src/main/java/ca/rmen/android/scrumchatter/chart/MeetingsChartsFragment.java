@@ -75,28 +75,26 @@ public class MeetingsChartsFragment extends Fragment {
         @Override
         public Loader<Cursor> onCreateLoader(int id, Bundle args) {
             long teamId = Prefs.getInstance(getContext()).getTeamId();
-            String[] selectionArgs = new String[]{String.valueOf(teamId)};
 
             if (id == LOADER_MEETING_DURATION) {
-                String selection = MeetingColumns.TEAM_ID + "=?";
                 return new CursorLoader(
                         getContext(),
-                        MeetingColumns.CONTENT_URI,
+                        MeetingColumns.getTeamContentUri(teamId),
+                        null,
+                        null,
                         null,
-                        selection,
-                        selectionArgs,
                         MeetingColumns.MEETING_DATE);
             } else {
                 return new CursorLoader(getContext(),
-                        MeetingMemberColumns.CONTENT_URI,
+                        MeetingMemberColumns.getTeamContentUri(teamId),
                         new String[]{
                                 MeetingMemberColumns.MEMBER_ID,
                                 MeetingMemberColumns.MEETING_ID,
                                 MeetingColumns.MEETING_DATE,
                                 MemberColumns.NAME,
                                 MeetingMemberColumns.DURATION},
-                        MeetingMemberColumns.DURATION + ">0 AND " + MeetingColumns.TEAM_ID + "=?",
-                        selectionArgs,
+                        MeetingMemberColumns.SELECTION_TALKED,
+                        null,
                         MeetingMemberColumns.MEETING_ID + ", " + MemberColumns.NAME + " DESC");
             }
         }
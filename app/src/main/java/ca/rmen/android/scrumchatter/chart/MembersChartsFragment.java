@@ -77,19 +77,17 @@ public class MembersChartsFragment extends Fragment {
         @Override
         public Loader<Cursor> onCreateLoader(int id, Bundle args) {
             long teamId = Prefs.getInstance(getContext()).getTeamId();
-            String[] selectionArgs = new String[]{String.valueOf(teamId)};
 
             if (id == LOADER_MEMBER_SPEAKING_TIME) {
                 String[] projection = new String[]{MemberColumns._ID, MemberColumns.NAME, MemberStatsColumns.SUM_DURATION, MemberStatsColumns.AVG_DURATION};
-                String selection = MemberStatsColumns.TEAM_ID + " =? AND " + MemberColumns.DELETED + "=0 ";
-                return new CursorLoader(getContext(), MemberStatsColumns.CONTENT_URI, projection, selection, selectionArgs, null);
+                String selection = MemberColumns.DELETED + "=0 ";
+                return new CursorLoader(getContext(), MemberStatsColumns.getTeamContentUri(teamId), projection, selection, null, null);
             } else {
                 String[] projection = new String[]{
                         "MIN(" + MeetingColumns.MEETING_DATE + ")",
                         "MAX(" + MeetingColumns.MEETING_DATE + ")",
                 };
-                String selection = MeetingColumns.TEAM_ID + " = ?";
-                return new CursorLoader(getContext(), MeetingColumns.CONTENT_URI, projection, selection, selectionArgs, null);
+                return new CursorLoader(getContext(), MeetingColumns.getTeamContentUri(teamId), projection, null, null, null);
             }
 
         }
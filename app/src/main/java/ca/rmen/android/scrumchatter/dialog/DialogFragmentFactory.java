@@ -125,4 +125,20 @@ public class DialogFragmentFactory extends DialogFragment {
         result.show(activity.getSupportFragmentManager(), tag);
     }
 
+    /**
+     * Show a visible dialog fragment with the given message, a progress bar, and a cancel button. If the given activity implements
+     *         {@link ProgressDialogFragment.DialogCancelListener}, the actionId will be provided in the
+     *         {@link ProgressDialogFragment.DialogCancelListener#onCancelClicked(int)} callback on the activity, when the user clicks on the cancel button.
+     * @param tag should be used by the calling activity to find the fragment, to show the progress and to dismiss it.
+     */
+    public static void showProgressDialog(FragmentActivity activity, String message, @SuppressWarnings("SameParameterValue") String tag, int actionId) {
+        Log.v(TAG, "showProgressDialog: message = " + message + ", actionId = " + actionId);
+        Bundle arguments = new Bundle(2);
+        arguments.putString(EXTRA_MESSAGE, message);
+        arguments.putInt(EXTRA_ACTION_ID, actionId);
+        ProgressDialogFragment result = new ProgressDialogFragment();
+        result.setArguments(arguments);
+        result.show(activity.getSupportFragmentManager(), tag);
+    }
+
 }
@@ -20,10 +20,12 @@ package ca.rmen.android.scrumchatter.dialog;
 
 import android.app.Dialog;
 import android.app.ProgressDialog;
+import android.content.DialogInterface;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v4.app.DialogFragment;
+import android.support.v4.app.FragmentActivity;
 import android.support.v4.content.ContextCompat;
 import ca.rmen.android.scrumchatter.util.Log;
 import android.widget.ProgressBar;
@@ -38,12 +40,20 @@ public class ProgressDialogFragment extends DialogFragment {
 
     private static final String TAG = Constants.TAG + "/" + ProgressDialogFragment.class.getSimpleName();
 
+    /**
+     * An activity which shows a cancelable progress dialog fragment should implement this interface to be notified if the user cancels the dialog.
+     */
+    public interface DialogCancelListener {
+        void onCancelClicked(int actionId);
+    }
+
     public ProgressDialogFragment() {
         super();
     }
 
     /**
-     * @return an indeterminate, non-cancelable, ProgressDialog with a message.
+     * @return a ProgressDialog with a message.  It's indeterminate until {@link #setProgress(int)} is called.  It has a
+     * cancel button only if it was created with an action id.
      */
     @Override
     @NonNull
@@ -63,7 +73,26 @@ public class ProgressDialogFragment extends DialogFragment {
                 }
             }
         });
+        if (arguments.containsKey(DialogFragmentFactory.EXTRA_ACTION_ID)) {
+            final int actionId = arguments.getInt(DialogFragmentFactory.EXTRA_ACTION_ID);
+            dialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            dialog.setProgressNumberFormat(null);
+            dialog.setButton(DialogInterface.BUTTON_NEGATIVE, getString(android.R.string.cancel), (shownDialog, which) -> {
+                FragmentActivity activity = getActivity();
+                if (activity instanceof DialogCancelListener) ((DialogCancelListener) activity).onCancelClicked(actionId);
+            });
+        }
         dialog.setCancelable(false);
         return dialog;
     }
+
+    /**
+     * Show the progress of the task, from 0 to 100.
+     */
+    public void setProgress(int percent) {
+        ProgressDialog dialog = (ProgressDialog) getDialog();
+        if (dialog == null) return;
+        dialog.setIndeterminate(false);
+        dialog.setProgress(percent);
+    }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.export;
+
+import java.io.File;
+
+import android.content.Context;
+import ca.rmen.android.scrumchatter.provider.DBBackup;
+
+/**
+ * Export a compressed backup, which only grows by the changes since the previous export.
+ */
+public class BackupExport extends FileExport {
+    private static final String MIME_TYPE = "application/octet-stream";
+    private static final String BACKUP_FILE = "scrumchatter.backup";
+
+    public BackupExport(Context context) {
+        super(context, MIME_TYPE);
+    }
+
+    /**
+     * Append the latest changes to the backup file and return it.
+     *
+     * @see ca.rmen.android.scrumchatter.export.FileExport#createFile()
+     */
+    @Override
+    protected File createFile() {
+        File backupFile = Export.getExportFile(mContext, BACKUP_FILE);
+        if (backupFile == null) return null;
+        if (DBBackup.write(mContext, backupFile)) return backupFile;
+        else
+            return null;
+    }
+
+}
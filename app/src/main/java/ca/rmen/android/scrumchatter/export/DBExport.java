@@ -21,8 +21,8 @@ package ca.rmen.android.scrumchatter.export;
 import java.io.File;
 
 import android.content.Context;
+import ca.rmen.android.scrumchatter.provider.DBSnapshot;
 import ca.rmen.android.scrumchatter.provider.ScrumChatterDatabase;
-import ca.rmen.android.scrumchatter.util.IOUtils;
 
 /**
  * Export the raw database file.
@@ -34,16 +34,21 @@ public class DBExport extends FileExport {
         super(context, MIME_TYPE);
     }
 
+    @Override
+    protected String getCacheKey() {
+        return ScrumChatterDatabase.DATABASE_NAME;
+    }
+
     /**
-     * Copy the internal database file to the SD card and return the SD card file.
+     * Write a snapshot of the internal database to the SD card and return the SD card file.
      * 
      * @see ca.rmen.android.scrumchatter.export.FileExport#createFile()
      */
     @Override
     protected File createFile() {
-        File internalDBFile = mContext.getDatabasePath(ScrumChatterDatabase.DATABASE_NAME);
         File externalDBFile = Export.getExportFile(mContext, ScrumChatterDatabase.DATABASE_NAME);
-        if (IOUtils.copy(internalDBFile, externalDBFile)) return externalDBFile;
+        if (externalDBFile == null) return null;
+        if (DBSnapshot.create(mContext, externalDBFile)) return externalDBFile;
         else
             return null;
     }
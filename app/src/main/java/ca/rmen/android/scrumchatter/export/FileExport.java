@@ -19,20 +19,70 @@
 package ca.rmen.android.scrumchatter.export;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
 
 import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 
+import ca.rmen.android.scrumchatter.provider.ScrumChatterProvider;
+import ca.rmen.android.scrumchatter.provider.TeamColumns;
 import ca.rmen.android.scrumchatter.util.Log;
 import ca.rmen.android.scrumchatter.Constants;
 
 /**
  * Base class for sharing a file using an intent chooser. The base classes must provide a mime-type (used to determine which apps can share the file) and must
  * override {@link #createFile()} to provide a file to share.
+ *
+ * Subclasses may report their progress with {@link #publishProgress(long, long)}, and should stop when {@link #isCancelled()}.
+ * Subclasses which override {@link #getCacheKey()} don't create their file again if the data didn't change since their last export.
  */
 public abstract class FileExport {
     private static final String TAG = Constants.TAG + "/" + FileExport.class.getSimpleName();
+
+    /**
+     * Notified, on the thread of the export, each time the progress of the export changes by at least 1%.
+     */
+    public interface ProgressListener {
+        @WorkerThread
+        void onProgress(int percent);
+    }
+
+    /**
+     * The last file of each cache key, and the data version it was created from.
+     */
+    private static class CachedExport {
+        final String dataVersion;
+        final File file;
+        final long lastModified;
+        final long length;
+
+        CachedExport(String dataVersion, File file) {
+            this.dataVersion = dataVersion;
+            this.file = file;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        /**
+         * @return true if the file was created from the given data version, and wasn't modified since.
+         */
+        boolean isValid(String dataVersion) {
+            return this.dataVersion.equals(dataVersion) && file.lastModified() == lastModified && file.length() == length;
+        }
+    }
+
+    private static final Map<String, CachedExport> sCachedExports = new HashMap<>();
+
     final Context mContext;
     private final String mMimeType;
+    private volatile boolean mIsCancelled;
+    private ProgressListener mProgressListener;
+    private int mProgress;
 
     /**
      * @param mimeType will be used to show a list of applications which can share the file created by {@link #createFile()}.
@@ -50,16 +100,98 @@ public abstract class FileExport {
      */
     protected abstract File createFile();
 
+    /**
+     * @return a key which identifies the content of the file created by {@link #createFile()}, for the same data.
+     * If it isn't null, the file of the last export with the same key is shared again, if the data didn't change.
+     */
+    @Nullable
+    protected String getCacheKey() {
+        return null;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        mProgressListener = progressListener;
+    }
+
+    /**
+     * Stop the export.  {@link #export()} will return false.
+     */
+    public void cancel() {
+        Log.v(TAG, "cancel");
+        mIsCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mIsCancelled;
+    }
+
     /**
      * @return true if we were able to export the file.
      */
+    @WorkerThread
     public boolean export() {
         Log.v(TAG, "export");
+        String cacheKey = getCacheKey();
+        String dataVersion = null;
+        if (cacheKey != null) {
+            // The texts and dates of the file depend on the locale and time zone.
+            cacheKey = getClass().getSimpleName() + "/" + cacheKey + "/" + Locale.getDefault() + "/" + TimeZone.getDefault().getID();
+            dataVersion = readDataVersion();
+            File cachedFile = getCachedFile(cacheKey, dataVersion);
+            if (cachedFile != null) {
+                Log.v(TAG, "export: data version " + dataVersion + " didn't change since the last export of " + cachedFile);
+                Export.share(mContext, cachedFile, mMimeType);
+                return true;
+            }
+        }
         File file = createFile();
         Log.v(TAG, "export: created file " + file);
+        if (mIsCancelled) {
+            Log.v(TAG, "export: cancelled");
+            return false;
+        }
         if (file == null || !file.exists()) return false;
+        // If the data changed during the export, the next export will read a newer data version, and create the file again.
+        if (dataVersion != null) {
+            synchronized (sCachedExports) {
+                sCachedExports.put(cacheKey, new CachedExport(dataVersion, file));
+            }
+        }
         Export.share(mContext, file, mMimeType);
         return true;
     }
 
+    /**
+     * Notify the progress listener if the progress changed by at least 1%.
+     */
+    void publishProgress(long done, long total) {
+        if (mProgressListener == null || total <= 0) return;
+        int progress = (int) (done * 100 / total);
+        if (progress != mProgress) {
+            mProgress = progress;
+            mProgressListener.onProgress(progress);
+        }
+    }
+
+    @Nullable
+    private static File getCachedFile(String cacheKey, @Nullable String dataVersion) {
+        if (dataVersion == null) return null;
+        synchronized (sCachedExports) {
+            CachedExport cachedExport = sCachedExports.get(cacheKey);
+            if (cachedExport == null) return null;
+            if (cachedExport.isValid(dataVersion)) return cachedExport.file;
+            sCachedExports.remove(cacheKey);
+            return null;
+        }
+    }
+
+    /**
+     * @return the current data version of the provider, or null if we couldn't read it.
+     */
+    @Nullable
+    private String readDataVersion() {
+        Bundle result = mContext.getContentResolver().call(TeamColumns.CONTENT_URI, ScrumChatterProvider.METHOD_DATA_VERSION, null, null);
+        return result == null ? null : result.getString(ScrumChatterProvider.EXTRA_DATA_VERSION);
+    }
+
 }
@@ -21,11 +21,13 @@ package ca.rmen.android.scrumchatter.export;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.v4.util.Pair;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -40,23 +42,6 @@ import ca.rmen.android.scrumchatter.provider.MemberCursorWrapper;
 import ca.rmen.android.scrumchatter.provider.MemberStatsColumns;
 import ca.rmen.android.scrumchatter.provider.TeamColumns;
 import ca.rmen.android.scrumchatter.util.Log;
-import jxl.CellView;
-import jxl.JXLException;
-import jxl.Workbook;
-import jxl.format.Alignment;
-import jxl.format.Border;
-import jxl.format.BorderLineStyle;
-import jxl.format.CellFormat;
-import jxl.write.DateFormat;
-import jxl.write.DateFormats;
-import jxl.write.DateTime;
-import jxl.write.Label;
-import jxl.write.Number;
-import jxl.write.WritableCellFormat;
-import jxl.write.WritableFont;
-import jxl.write.WritableSheet;
-import jxl.write.WritableWorkbook;
-import jxl.write.WriteException;
 
 /**
  * Export data for all meetings to an Excel file.
@@ -64,17 +49,15 @@ import jxl.write.WriteException;
 public class MeetingsExport extends FileExport {
     private static final String TAG = Constants.TAG + "/" + MeetingsExport.class.getSimpleName();
 
-    private static final String EXCEL_FILE = "scrumchatter.xls";
-    private static final String MIME_TYPE = "application/vnd.ms-excel";
+    private static final String EXCEL_FILE = "scrumchatter.xlsx";
+    private static final String MIME_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
 
-    private WritableWorkbook mWorkbook;
-    private WritableSheet mSheet;
-    private WritableCellFormat mDefaultFormat;
-    private WritableCellFormat mBoldFormat;
-    private final WritableCellFormat mLongDurationFormat = new WritableCellFormat(DateFormats.FORMAT8);
-    private final WritableCellFormat mShortDurationFormat = new WritableCellFormat(DateFormats.FORMAT10);
-    private final WritableCellFormat mDateFormat = new WritableCellFormat(new DateFormat("dd-MMM-yyyy HH:mm"));
+    // The column widths, in characters, can't be computed from all the cells, which are only written once.
+    private static final int DATE_COLUMN_WIDTH = 18;
+    private static final int MIN_COLUMN_WIDTH = 10;
+    private static final int COLUMN_PADDING = 2;
 
+    private XlsxWriter mWriter;
 
     public MeetingsExport(Context context) {
         super(context, MIME_TYPE);
@@ -82,7 +65,10 @@ public class MeetingsExport extends FileExport {
 
     /**
      * Create and return an Excel file containing the speaking time for all members in all meetings.
-     * 
+     *
+     * The sheets are written one row at a time, while the meetings are read, so the memory used doesn't depend on the
+     * number of meetings.
+     *
      * @see ca.rmen.android.scrumchatter.export.FileExport#createFile()
      */
     protected File createFile() {
@@ -90,55 +76,83 @@ public class MeetingsExport extends FileExport {
 
         File file = Export.getExportFile(mContext, EXCEL_FILE);
 
+        long startTime = SystemClock.elapsedRealtime();
+        int rowCount = 0;
+        List<Pair<Long, String>> teams = readTeams();
+        List<String> teamNames = new ArrayList<>(teams.size());
+        for (Pair<Long, String> team : teams) teamNames.add(team.second);
         try {
-            mWorkbook = Workbook.createWorkbook(file);
+            mWriter = new XlsxWriter(file, teamNames);
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                // Create one worksheet for each team
+                for (int i = 0; i < teams.size() && !isCancelled(); i++) {
+                    rowCount += writeTeamSheet(teams.get(i).first, i, teams.size());
+                }
+            } finally {
+                mWriter.close();
+            }
         } catch (IOException e) {
-            Log.v(TAG, e.getMessage(), e);
+            Log.e(TAG, e.getMessage(), e);
             return null;
         }
-        // Create one worksheet for each team
+        if (isCancelled()) return null;
+        Log.v(TAG, "Exported " + teams.size() + " teams and " + rowCount + " meetings in " + (SystemClock.elapsedRealtime() - startTime)
+                + "ms: " + file.length() + " bytes");
+        return file;
+    }
+
+    /**
+     * @return the id and name of each team, sorted by name.
+     */
+    private List<Pair<Long, String>> readTeams() {
+        List<Pair<Long, String>> teams = new ArrayList<>();
         Cursor c = mContext.getContentResolver().query(TeamColumns.CONTENT_URI, new String[] { TeamColumns._ID, TeamColumns.TEAM_NAME }, null, null,
                 TeamColumns.TEAM_NAME + " COLLATE NOCASE");
         if (c != null) {
-            while (c.moveToNext()) {
-                int teamId = c.getInt(0);
-                String teamName = c.getString(1);
-                export(teamId, teamName);
+            try {
+                while (c.moveToNext()) {
+                    teams.add(Pair.create(c.getLong(0), c.getString(1)));
+                }
+            } finally {
+                c.close();
             }
-            c.close();
-        }
-        // Clean up
-        try {
-            mWorkbook.write();
-            mWorkbook.close();
-        } catch (IOException e) {
-            Log.e(TAG, e.getMessage(), e);
-            return null;
-        } catch (WriteException e) {
-            Log.e(TAG, e.getMessage(), e);
-            return null;
         }
-        return file;
+        return teams;
+    }
+
+    @Override
+    protected String getCacheKey() {
+        return EXCEL_FILE;
     }
 
-    private void export(int teamId, String teamName) {
-        // Build a cache of all member names, including the average and total duration for each member.
+    /**
+     * Write the sheet of one team: the meetings are written while they are read.
+     *
+     * @param teamIndex the position of the team in the workbook, and teamCount the number of teams, to report the progress.
+     * @return the number of meetings written.
+     */
+    private int writeTeamSheet(long teamId, int teamIndex, int teamCount) throws IOException {
+        // Build a cache of all members, including the average and total duration for each member.
+        // Members are identified by their id: two members with the same name have their own columns.
         List<String> memberNames = new ArrayList<>();
-        Map<String, Integer> avgMemberDurations = new HashMap<>();
-        Map<String, Integer> sumMemberDurations = new HashMap<>();
+        List<Integer> avgMemberDurations = new ArrayList<>();
+        List<Integer> sumMemberDurations = new ArrayList<>();
+        // The index of each member in the lists above, by member id.
+        Map<Long, Integer> memberIndexes = new HashMap<>();
         // Closing the memberCursorWrapper will also close memberCursor
         @SuppressLint("Recycle")
         Cursor memberCursor = mContext.getContentResolver().query(MemberStatsColumns.CONTENT_URI,
-                new String[] { MemberColumns.NAME, MemberStatsColumns.AVG_DURATION, MemberStatsColumns.SUM_DURATION },
-                MemberStatsColumns.TEAM_ID + "=? AND " + "(" + MemberStatsColumns.SUM_DURATION + ">0 OR " + MemberStatsColumns.AVG_DURATION + " >0 " + ")",
+                new String[] { MemberColumns._ID, MemberColumns.NAME, MemberStatsColumns.AVG_DURATION, MemberStatsColumns.SUM_DURATION },
+                MemberStatsColumns.TEAM_ID + "=? AND " + "(" + MemberStatsColumns.SUM_DURATION + " >= 1000 OR " + MemberStatsColumns.AVG_DURATION + " >= 1000)",
                 new String[] { String.valueOf(teamId) }, MemberColumns.NAME);
         if (memberCursor != null) {
             MemberCursorWrapper memberCursorWrapper = new MemberCursorWrapper(memberCursor);
             while (memberCursor.moveToNext()) {
-                String memberName = memberCursorWrapper.getName();
-                memberNames.add(memberName);
-                avgMemberDurations.put(memberName, memberCursorWrapper.getAverageDuration());
-                sumMemberDurations.put(memberName, memberCursorWrapper.getSumDuration());
+                memberIndexes.put(memberCursorWrapper.getId(), memberNames.size());
+                memberNames.add(memberCursorWrapper.getName());
+                avgMemberDurations.add(memberCursorWrapper.getAverageDuration());
+                sumMemberDurations.add(memberCursorWrapper.getSumDuration());
             }
             memberCursorWrapper.close();
         }
@@ -148,9 +162,11 @@ public class MeetingsExport extends FileExport {
         columnHeadings.add(mContext.getString(R.string.export_header_meeting_date));
         columnHeadings.addAll(memberNames);
         columnHeadings.add(mContext.getString(R.string.export_header_meeting_duration));
-        writeHeader(teamName, columnHeadings);
+        writeHeader(columnHeadings);
 
         // Read all the meeting/member data
+        int meetingCount = 0;
+        long totalMeetingDuration = 0;
         // Closing meetingMemberCursorWrapper will also close meetingMemberCursor
         @SuppressLint("Recycle")
         Cursor meetingMemberCursor = mContext.getContentResolver().query(
@@ -159,186 +175,114 @@ public class MeetingsExport extends FileExport {
                         MeetingMemberColumns.MEETING_ID,
                         MeetingColumns.MEETING_DATE,
                         MeetingColumns.TOTAL_DURATION,
-                        MemberColumns.NAME,
+                        MeetingMemberColumns.MEMBER_ID,
                         MeetingMemberColumns.DURATION},
-                MeetingMemberColumns.DURATION + ">0 AND " + MeetingColumns.TEAM_ID + "=?",
+                MeetingMemberColumns.SELECTION_TALKED + " AND " + MeetingColumns.TEAM_ID + "=?",
                 new String[]{String.valueOf(teamId)},
                 MeetingColumns.MEETING_DATE + ", "
-                        + MeetingMemberColumns.MEETING_ID + ", "
-                        + MemberColumns.NAME);
-
-        MeetingMemberCursorWrapper meetingMemberCursorWrapper = new MeetingMemberCursorWrapper(meetingMemberCursor);
-        long totalMeetingDuration = 0;
-        //noinspection TryFinallyCanBeTryWithResources
-        try {
-            long currentMeetingId;
-            int rowNumber = 1;
-            while (meetingMemberCursorWrapper.moveToNext()) {
-                // Write one row to the Excel file, for one meeting.
-                insertDateCell(meetingMemberCursorWrapper.getMeetingDate(), rowNumber);
-                long meetingDuration = meetingMemberCursorWrapper.getTotalDuration();
-                totalMeetingDuration += meetingDuration;
-                insertDurationCell(meetingMemberCursorWrapper.getTotalDuration(), rowNumber, columnHeadings.size() - 1, null);
-                currentMeetingId = meetingMemberCursorWrapper.getMeetingId();
-
-                do {
-                    long meetingId = meetingMemberCursorWrapper.getMeetingId();
-                    if (meetingId != currentMeetingId) {
-                        meetingMemberCursorWrapper.move(-1);
-                        break;
-                    }
-                    String memberName = meetingMemberCursorWrapper.getMemberName();
-                    int memberColumnIndex = memberNames.indexOf(memberName) + 1;
-                    insertDurationCell(meetingMemberCursorWrapper.getDuration(), rowNumber, memberColumnIndex, null);
-                } while (meetingMemberCursorWrapper.moveToNext());
-                rowNumber++;
+                        + MeetingMemberColumns.MEETING_ID);
+        if (meetingMemberCursor != null) {
+            MeetingMemberCursorWrapper meetingMemberCursorWrapper = new MeetingMemberCursorWrapper(meetingMemberCursor);
+            // The speaking time of each member in the current meeting, in the order of the member columns,
+            // or -1 if the member didn't speak.  It is reused for all the meetings.
+            long[] memberDurations = new long[memberNames.size()];
+            int rowCount = meetingMemberCursor.getCount();
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                boolean hasRow = meetingMemberCursorWrapper.moveToNext();
+                while (hasRow && !isCancelled()) {
+                    publishProgress((long) teamIndex * rowCount + meetingMemberCursor.getPosition(), (long) teamCount * rowCount);
+                    // Collect one row for one meeting.
+                    long meetingDate = meetingMemberCursorWrapper.getMeetingDate();
+                    long meetingDuration = meetingMemberCursorWrapper.getTotalDuration();
+                    long currentMeetingId = meetingMemberCursorWrapper.getMeetingId();
+                    Arrays.fill(memberDurations, -1);
+                    do {
+                        Integer memberIndex = memberIndexes.get(meetingMemberCursorWrapper.getMemberId());
+                        if (memberIndex != null) memberDurations[memberIndex] = meetingMemberCursorWrapper.getDuration();
+                        hasRow = meetingMemberCursorWrapper.moveToNext();
+                    } while (hasRow && meetingMemberCursorWrapper.getMeetingId() == currentMeetingId);
+                    writeMeetingRow(meetingDate, meetingDuration, memberDurations);
+                    totalMeetingDuration += meetingDuration;
+                    meetingCount++;
+                }
+            } finally {
+                meetingMemberCursorWrapper.close();
             }
-            // Write the table footer containing the averages and totals
-            writeFooter(rowNumber, memberNames, sumMemberDurations, avgMemberDurations, totalMeetingDuration);
-
-        } finally {
-            meetingMemberCursorWrapper.close();
         }
+        // Write the table footer containing the averages and totals
+        writeFooter(meetingCount, sumMemberDurations, avgMemberDurations, totalMeetingDuration);
+        mWriter.endSheet();
+        publishProgress(teamIndex + 1, teamCount);
+        return meetingCount;
     }
 
-
     /**
-     * Create the workbook, sheet, custom cell formats, and freeze row and
-     * column. Also write the column headings.
+     * Start the sheet, and freeze the first row and column. Also write the column headings.
      */
-    private void writeHeader(String teamName, List<String> columnNames) {
-        mSheet = mWorkbook.createSheet(teamName, 0);
-        mSheet.insertRow(0);
-        mSheet.getSettings().setHorizontalFreeze(1);
-        mSheet.getSettings().setVerticalFreeze(1);
-        createCellFormats();
+    private void writeHeader(List<String> columnNames) throws IOException {
+        // The sheet must be started with the column widths: make room for the headings, and for the dates in the first column.
+        double[] columnWidths = new double[columnNames.size()];
         for (int i = 0; i < columnNames.size(); i++) {
-            mSheet.insertColumn(i);
-            insertCell(columnNames.get(i), 0, i, mBoldFormat);
+            int width = Math.max(columnNames.get(i).length(), i == 0 ? DATE_COLUMN_WIDTH : MIN_COLUMN_WIDTH);
+            columnWidths[i] = width + COLUMN_PADDING;
+        }
+        mWriter.beginSheet(columnWidths);
+        mWriter.beginRow();
+        for (String columnName : columnNames) {
+            mWriter.writeText(columnName, XlsxWriter.STYLE_HEADER);
         }
+        mWriter.endRow();
     }
 
     /**
-     * Write the average and sum formulas at the bottom of the table.
-     * 
-     * @param rowNumber The row number for the row after the last row of the meetings.
-     * @param memberNames The names of each team member.
-     * @param sumMemberDurations The total speaking time per member, in seconds
-     * @param avgMemberDurations The average speaking time per member, in seconds
-     * @param totalMeetingDuration The total time of all meetings.
+     * Write one row for one meeting: its date, the speaking time of each member, and its duration.
+     *
+     * @param memberDurations The speaking time of each member, in the order of the member columns, or -1 if the member didn't speak.
      */
-    private void writeFooter(int rowNumber, List<String> memberNames, Map<String, Integer> sumMemberDurations, Map<String, Integer> avgMemberDurations,
-            long totalMeetingDuration) {
-        try {
-            // Create formats we need for the bottom rows of the table.
-            WritableCellFormat boldTopBorderLabel = new WritableCellFormat(mBoldFormat);
-            boldTopBorderLabel.setBorder(Border.TOP, BorderLineStyle.DOUBLE);
-            WritableCellFormat boldTopBorderLongDuration = new WritableCellFormat(mLongDurationFormat);
-            boldTopBorderLongDuration.setFont(new WritableFont(mBoldFormat.getFont()));
-            boldTopBorderLongDuration.setBorder(Border.TOP, BorderLineStyle.DOUBLE);
-            WritableCellFormat boldShortDuration = new WritableCellFormat(mShortDurationFormat);
-            boldShortDuration.setFont(new WritableFont(mBoldFormat.getFont()));
-
-            // Insert the average and total titles.
-            insertCell(mContext.getString(R.string.member_list_header_sum_duration), rowNumber, 0, boldTopBorderLabel);
-            insertCell(mContext.getString(R.string.member_list_header_avg_duration), rowNumber + 1, 0, mBoldFormat);
-
-            int columnCount = memberNames.size() + 2;
-
-            // Insert the average and total durations for all members
-            for (int i = 0; i < memberNames.size(); i++) {
-                String memberName = memberNames.get(i);
-                int col = i + 1;
-                insertDurationCell(sumMemberDurations.get(memberName), rowNumber, col, boldTopBorderLongDuration);
-                insertDurationCell(avgMemberDurations.get(memberName), rowNumber + 1, col, boldShortDuration);
-            }
-
-            // Insert the average and total durations for the meetings.
-            insertDurationCell(totalMeetingDuration, rowNumber, columnCount - 1, boldTopBorderLongDuration);
-            int numMeetings = rowNumber - 1;
-            long averageMeetingDuration = numMeetings == 0 ? 0 : totalMeetingDuration / numMeetings;
-            insertDurationCell(averageMeetingDuration, rowNumber + 1, columnCount - 1, boldShortDuration);
-
-            // Now that the whole table is filled, auto-size the width of the first and last columns.
-            CellView columnView = mSheet.getColumnView(0);
-            columnView.setAutosize(true);
-            mSheet.setColumnView(0, columnView);
-
-            columnView = mSheet.getColumnView(columnCount - 1);
-            columnView.setAutosize(true);
-            mSheet.setColumnView(columnCount - 1, columnView);
-        } catch (JXLException e) {
-            Log.e(TAG, "Error adding formulas: " + e.getMessage(), e);
+    private void writeMeetingRow(long meetingDate, long meetingDuration, long[] memberDurations) throws IOException {
+        mWriter.beginRow();
+        mWriter.writeDate(meetingDate, XlsxWriter.STYLE_DATE);
+        for (long memberDuration : memberDurations) {
+            if (memberDuration >= 0) writeDuration(memberDuration);
+            else mWriter.skipCell();
         }
+        writeDuration(meetingDuration);
+        mWriter.endRow();
     }
 
     /**
-     * Write a single cell to the Excel file
-     * 
-     * @param text
-     *            will be written as text in the cell.
-     * @param format
-     *            may be null for the default cell format.
+     * Write the average and sum rows at the bottom of the table.
+     *
+     * @param meetingCount The number of meetings in the table.
+     * @param sumMemberDurations The total speaking time per member, in seconds, in the order of the member columns.
+     * @param avgMemberDurations The average speaking time per member, in seconds, in the order of the member columns.
+     * @param totalMeetingDuration The total time of all meetings.
      */
-    private void insertCell(String text, int row, int column, CellFormat format) {
-        Label label = format == null ? new Label(column, row, text, mDefaultFormat) : new Label(column, row, text, format);
-        try {
-            mSheet.addCell(label);
-        } catch (JXLException e) {
-            Log.e(TAG, "writeHeader Could not insert cell " + text + " at row=" + row + ", col=" + column, e);
+    private void writeFooter(int meetingCount, List<Integer> sumMemberDurations, List<Integer> avgMemberDurations, long totalMeetingDuration)
+            throws IOException {
+        // Insert the total durations for all members, and for the meetings.
+        mWriter.beginRow();
+        mWriter.writeText(mContext.getString(R.string.member_list_header_sum_duration), XlsxWriter.STYLE_FOOTER_LABEL);
+        for (int sumMemberDuration : sumMemberDurations) {
+            mWriter.writeDuration(sumMemberDuration, XlsxWriter.STYLE_FOOTER_LONG_DURATION);
         }
-    }
-
-    private void insertDurationCell(long durationInSeconds, int row, int column, CellFormat cellFormat) {
-        double durationInDays = (double) durationInSeconds / (24 * 60 * 60);
-        if (cellFormat == null) cellFormat = durationInSeconds >= 3600 ? mLongDurationFormat : mShortDurationFormat;
-        Number number = new Number(column, row, durationInDays, cellFormat);
-        try {
-            mSheet.addCell(number);
-        } catch (JXLException e) {
-            Log.e(TAG, "writeHeader Could not insert cell " + durationInSeconds + " at row=" + row + ", col=" + column, e);
+        mWriter.writeDuration(totalMeetingDuration, XlsxWriter.STYLE_FOOTER_LONG_DURATION);
+        mWriter.endRow();
+
+        // Insert the average durations for all members, and for the meetings.
+        mWriter.beginRow();
+        mWriter.writeText(mContext.getString(R.string.member_list_header_avg_duration), XlsxWriter.STYLE_HEADER);
+        for (int avgMemberDuration : avgMemberDurations) {
+            mWriter.writeDuration(avgMemberDuration, XlsxWriter.STYLE_FOOTER_SHORT_DURATION);
         }
+        long averageMeetingDuration = meetingCount == 0 ? 0 : totalMeetingDuration / meetingCount;
+        mWriter.writeDuration(averageMeetingDuration, XlsxWriter.STYLE_FOOTER_SHORT_DURATION);
+        mWriter.endRow();
     }
 
-    private void insertDateCell(long dateInMillis, int row) {
-        DateTime dateCell = new DateTime(0, row, new Date(dateInMillis), mDateFormat);
-        try {
-            mSheet.addCell(dateCell);
-        } catch (JXLException e) {
-            Log.e(TAG, "writeHeader Could not insert cell " + dateCell + " at row=" + row, e);
-        }
-    }
-
-    /**
-     * In order to set text to bold, red, or green, we need to create cell
-     * formats for each style.
-     */
-    private void createCellFormats() {
-
-        // Insert a dummy empty cell, so we can obtain its cell. This allows to
-        // start with a default cell format.
-        Label cell = new Label(0, 0, " ");
-        CellFormat cellFormat = cell.getCellFormat();
-
-        try {
-            // Create the bold format
-            final WritableFont boldFont = new WritableFont(cellFormat.getFont());
-            mBoldFormat = new WritableCellFormat(cellFormat);
-            boldFont.setBoldStyle(WritableFont.BOLD);
-            mBoldFormat.setFont(boldFont);
-            mBoldFormat.setAlignment(Alignment.CENTRE);
-
-            // Center other formats
-            mDefaultFormat = new WritableCellFormat(cellFormat);
-            mDefaultFormat.setAlignment(Alignment.CENTRE);
-            mLongDurationFormat.setAlignment(Alignment.CENTRE);
-            mShortDurationFormat.setAlignment(Alignment.CENTRE);
-            mDateFormat.setAlignment(Alignment.CENTRE);
-
-
-        } catch (WriteException e) {
-            Log.e(TAG, "createCellFormats Could not create cell formats", e);
-        }
+    private void writeDuration(long durationInSeconds) throws IOException {
+        mWriter.writeDuration(durationInSeconds, durationInSeconds >= 3600 ? XlsxWriter.STYLE_LONG_DURATION : XlsxWriter.STYLE_SHORT_DURATION);
     }
 
 }
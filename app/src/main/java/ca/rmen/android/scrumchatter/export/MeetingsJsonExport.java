@@ -0,0 +1,302 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.export;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.provider.MeetingColumns;
+import ca.rmen.android.scrumchatter.provider.MeetingCursorWrapper;
+import ca.rmen.android.scrumchatter.provider.MeetingMemberColumns;
+import ca.rmen.android.scrumchatter.provider.MeetingMemberCursorWrapper;
+import ca.rmen.android.scrumchatter.provider.MemberColumns;
+import ca.rmen.android.scrumchatter.provider.TeamColumns;
+import ca.rmen.android.scrumchatter.util.Log;
+
+/**
+ * Export all the meetings to a newline-delimited JSON file (one JSON object per line), for other tools to import.
+ *
+ * Each meeting is written as a "meeting" record, followed by one "meeting_member" record for each of its members.
+ * Dates are in milliseconds since 1970, and durations are in seconds.  The meetings are written in the order of their
+ * ids, so an export can start after the last meeting of a previous export.  Only finished meetings don't change
+ * anymore: an incremental export should start after the last finished meeting of the previous export.
+ *
+ * This export isn't cached, so that {@link #getLastMeetingId()} is always known after the export.
+ */
+public class MeetingsJsonExport extends FileExport {
+    private static final String TAG = Constants.TAG + "/" + MeetingsJsonExport.class.getSimpleName();
+
+    private static final String JSON_FILE = "scrumchatter.ndjson";
+    private static final String MIME_TYPE = "application/x-ndjson";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String RECORD_MEETING = "meeting";
+    private static final String RECORD_MEETING_MEMBER = "meeting_member";
+
+    private final long mAfterMeetingId;
+    // Each record is built in this buffer, then written at once.
+    private final StringBuilder mRecord = new StringBuilder(256);
+    private Writer mWriter;
+    private long mLastMeetingId;
+
+    /**
+     * Export all the meetings.
+     */
+    public MeetingsJsonExport(Context context) {
+        this(context, 0);
+    }
+
+    /**
+     * @param afterMeetingId only the meetings with a greater id are exported.
+     */
+    public MeetingsJsonExport(Context context, long afterMeetingId) {
+        super(context, MIME_TYPE);
+        mAfterMeetingId = afterMeetingId;
+        mLastMeetingId = afterMeetingId;
+    }
+
+    /**
+     * @return the id of the last meeting exported by {@link #createFile()}, or the id given to the constructor if
+     * there was no meeting to export.
+     */
+    public long getLastMeetingId() {
+        return mLastMeetingId;
+    }
+
+    /**
+     * Create and return a file containing a record for each meeting, and for each member of each meeting.
+     *
+     * @see ca.rmen.android.scrumchatter.export.FileExport#createFile()
+     */
+    @Override
+    protected File createFile() {
+        Log.v(TAG, "export after meeting " + mAfterMeetingId);
+        File file = Export.getExportFile(mContext, JSON_FILE);
+        if (file == null) return null;
+
+        long startTime = SystemClock.elapsedRealtime();
+        int recordCount;
+        try {
+            mWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), BUFFER_SIZE);
+            try {
+                recordCount = writeMeetings(readTeamNames());
+            } finally {
+                mWriter.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return null;
+        }
+        if (isCancelled()) return null;
+        long duration = SystemClock.elapsedRealtime() - startTime;
+        Log.v(TAG, "Exported " + recordCount + " records up to meeting " + mLastMeetingId + " in " + duration + "ms: "
+                + file.length() + " bytes");
+        return file;
+    }
+
+    /**
+     * @return the name of each team, by team id.
+     */
+    private Map<Long, String> readTeamNames() {
+        Map<Long, String> teamNames = new HashMap<>();
+        Cursor teamCursor = mContext.getContentResolver().query(TeamColumns.CONTENT_URI, new String[]{TeamColumns._ID, TeamColumns.TEAM_NAME},
+                null, null, null);
+        if (teamCursor != null) {
+            while (teamCursor.moveToNext()) {
+                teamNames.put(teamCursor.getLong(0), teamCursor.getString(1));
+            }
+            teamCursor.close();
+        }
+        return teamNames;
+    }
+
+    /**
+     * Read the meetings, and the members of all the meetings, with one query each.  Both are sorted by meeting id,
+     * and read only once, from the first row to the last.
+     *
+     * @return the number of records written.
+     */
+    private int writeMeetings(Map<Long, String> teamNames) throws IOException {
+        String[] selectionArgs = new String[]{String.valueOf(mAfterMeetingId)};
+        // Closing the meetingCursorWrapper will also close meetingCursor
+        @SuppressLint("Recycle")
+        Cursor meetingCursor = mContext.getContentResolver().query(
+                MeetingColumns.CONTENT_URI,
+                new String[]{
+                        BaseColumns._ID,
+                        MeetingColumns.TEAM_ID,
+                        MeetingColumns.MEETING_DATE,
+                        MeetingColumns.TOTAL_DURATION,
+                        MeetingColumns.STATE},
+                BaseColumns._ID + ">?",
+                selectionArgs,
+                BaseColumns._ID);
+        if (meetingCursor == null) return 0;
+        MeetingCursorWrapper meetingCursorWrapper = new MeetingCursorWrapper(meetingCursor);
+
+        // Closing meetingMemberCursorWrapper will also close meetingMemberCursor
+        @SuppressLint("Recycle")
+        Cursor meetingMemberCursor = mContext.getContentResolver().query(
+                MeetingMemberColumns.CONTENT_URI,
+                new String[]{
+                        MeetingMemberColumns.MEETING_ID,
+                        MeetingMemberColumns.MEMBER_ID,
+                        MemberColumns.NAME,
+                        MeetingMemberColumns.DURATION,
+                        MeetingMemberColumns.TALK_START_TIME},
+                MeetingMemberColumns.MEETING_ID + ">?",
+                selectionArgs,
+                MeetingMemberColumns.MEETING_ID + ", " + MeetingMemberColumns.MEMBER_ID);
+        if (meetingMemberCursor == null) {
+            meetingCursorWrapper.close();
+            return 0;
+        }
+        MeetingMemberCursorWrapper meetingMemberCursorWrapper = new MeetingMemberCursorWrapper(meetingMemberCursor);
+
+        int teamIdIndex = meetingCursor.getColumnIndexOrThrow(MeetingColumns.TEAM_ID);
+        int meetingCount = meetingCursor.getCount();
+        int recordCount = 0;
+        try {
+            boolean hasMemberRow = meetingMemberCursorWrapper.moveToNext();
+            while (!isCancelled() && meetingCursorWrapper.moveToNext()) {
+                publishProgress(meetingCursor.getPosition(), meetingCount);
+                long meetingId = meetingCursorWrapper.getId();
+                long teamId = meetingCursor.getLong(teamIdIndex);
+                String teamName = teamNames.get(teamId);
+                long meetingDate = meetingCursorWrapper.getMeetingDate();
+                String state = meetingCursorWrapper.getState().name();
+                writeMeeting(meetingId, teamId, teamName, meetingDate, meetingCursorWrapper.getTotalDuration(), state);
+                recordCount++;
+
+                // Skip the members of meetings which were deleted after the meetings were read.
+                while (hasMemberRow && meetingMemberCursorWrapper.getMeetingId() < meetingId) {
+                    hasMemberRow = meetingMemberCursorWrapper.moveToNext();
+                }
+                while (hasMemberRow && meetingMemberCursorWrapper.getMeetingId() == meetingId) {
+                    writeMeetingMember(meetingId, teamId, teamName, meetingDate, state, meetingMemberCursorWrapper);
+                    recordCount++;
+                    hasMemberRow = meetingMemberCursorWrapper.moveToNext();
+                }
+                mLastMeetingId = meetingId;
+            }
+        } finally {
+            meetingMemberCursorWrapper.close();
+            meetingCursorWrapper.close();
+        }
+        return recordCount;
+    }
+
+    private void writeMeeting(long meetingId, long teamId, String teamName, long meetingDate, long totalDuration, String state)
+            throws IOException {
+        beginRecord(RECORD_MEETING);
+        appendField("meeting_id", meetingId);
+        appendField("team_id", teamId);
+        appendField("team", teamName);
+        appendField("meeting_date", meetingDate);
+        appendField("duration", totalDuration);
+        appendField("state", state);
+        endRecord();
+    }
+
+    private void writeMeetingMember(long meetingId, long teamId, String teamName, long meetingDate, String state,
+                                    MeetingMemberCursorWrapper meetingMemberCursorWrapper) throws IOException {
+        beginRecord(RECORD_MEETING_MEMBER);
+        appendField("meeting_id", meetingId);
+        appendField("team_id", teamId);
+        appendField("team", teamName);
+        appendField("meeting_date", meetingDate);
+        appendField("state", state);
+        appendField("member_id", meetingMemberCursorWrapper.getMemberId());
+        appendField("member", meetingMemberCursorWrapper.getMemberName());
+        appendField("duration", meetingMemberCursorWrapper.getDuration());
+        // The time the member started talking, if the member is talking now.
+        long talkStartTime = meetingMemberCursorWrapper.getTalkStartTime();
+        if (talkStartTime > 0) appendField("talk_start_time", talkStartTime);
+        endRecord();
+    }
+
+    private void beginRecord(String type) {
+        mRecord.setLength(0);
+        mRecord.append("{\"type\":");
+        appendString(type);
+    }
+
+    private void endRecord() throws IOException {
+        mRecord.append("}\n");
+        mWriter.append(mRecord);
+    }
+
+    private void appendField(String name, long value) {
+        mRecord.append(",\"").append(name).append("\":").append(value);
+    }
+
+    private void appendField(String name, String value) {
+        mRecord.append(",\"").append(name).append("\":");
+        if (value == null) mRecord.append("null");
+        else appendString(value);
+    }
+
+    /**
+     * Append the given text as a JSON string, with its quotes.
+     */
+    private void appendString(String text) {
+        mRecord.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    mRecord.append("\\\"");
+                    break;
+                case '\\':
+                    mRecord.append("\\\\");
+                    break;
+                case '\n':
+                    mRecord.append("\\n");
+                    break;
+                case '\r':
+                    mRecord.append("\\r");
+                    break;
+                case '\t':
+                    mRecord.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) mRecord.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    else mRecord.append(c);
+                    break;
+            }
+        }
+        mRecord.append('"');
+    }
+
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.export;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.R;
+import ca.rmen.android.scrumchatter.provider.MeetingColumns;
+import ca.rmen.android.scrumchatter.provider.MeetingMemberColumns;
+import ca.rmen.android.scrumchatter.provider.MeetingMemberCursorWrapper;
+import ca.rmen.android.scrumchatter.provider.MemberColumns;
+import ca.rmen.android.scrumchatter.provider.MemberCursorWrapper;
+import ca.rmen.android.scrumchatter.provider.MemberStatsColumns;
+import ca.rmen.android.scrumchatter.provider.TeamColumns;
+import ca.rmen.android.scrumchatter.util.Log;
+
+/**
+ * Export data for all meetings to a CSV or TSV file, with the same table as the Excel export, for each team.
+ *
+ * The rows are written as they are read, from a single query of all the meetings.  Only the members of the teams are
+ * kept in memory.
+ */
+public class MeetingsTextExport extends FileExport {
+    private static final String TAG = Constants.TAG + "/" + MeetingsTextExport.class.getSimpleName();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    public enum Format {
+        CSV("scrumchatter.csv", "text/csv", ','),
+        TSV("scrumchatter.tsv", "text/tab-separated-values", '\t');
+
+        private final String mFileName;
+        private final String mMimeType;
+        private final char mSeparator;
+
+        Format(String fileName, String mimeType, char separator) {
+            mFileName = fileName;
+            mMimeType = mimeType;
+            mSeparator = separator;
+        }
+    }
+
+    /**
+     * The columns of the table of a team, and the totals of its members.
+     */
+    private static class TeamTable {
+        final String teamName;
+        final List<String> memberNames = new ArrayList<>();
+        final List<Integer> sumMemberDurations = new ArrayList<>();
+        final List<Integer> avgMemberDurations = new ArrayList<>();
+        // The index of each member in the lists above.
+        final Map<Long, Integer> memberIndexes = new HashMap<>();
+
+        TeamTable(String teamName) {
+            this.teamName = teamName;
+        }
+    }
+
+    private final Format mFormat;
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.US);
+    private final StringBuilder mDurationBuilder = new StringBuilder(8);
+    private Writer mWriter;
+
+    public MeetingsTextExport(Context context, Format format) {
+        super(context, format.mMimeType);
+        mFormat = format;
+    }
+
+    /**
+     * Create and return a text file containing the speaking time for all members in all meetings.
+     *
+     * @see ca.rmen.android.scrumchatter.export.FileExport#createFile()
+     */
+    @Override
+    protected File createFile() {
+        Log.v(TAG, "export " + mFormat);
+        File file = Export.getExportFile(mContext, mFormat.mFileName);
+        if (file == null) return null;
+
+        long startTime = SystemClock.elapsedRealtime();
+        Map<Long, TeamTable> teamTables = readTeamTables();
+        int meetingCount;
+        try {
+            mWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), BUFFER_SIZE);
+            try {
+                meetingCount = writeMeetings(teamTables);
+            } finally {
+                mWriter.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return null;
+        }
+        if (isCancelled()) return null;
+        long duration = SystemClock.elapsedRealtime() - startTime;
+        Log.v(TAG, "Exported " + meetingCount + " meetings of " + teamTables.size() + " teams in " + duration + "ms: "
+                + file.length() + " bytes");
+        return file;
+    }
+
+    @Override
+    protected String getCacheKey() {
+        return mFormat.name();
+    }
+
+    /**
+     * @return the table of each team, by team id, in the order of the team ids.
+     */
+    private Map<Long, TeamTable> readTeamTables() {
+        Map<Long, TeamTable> teamTables = new LinkedHashMap<>();
+        Cursor teamCursor = mContext.getContentResolver().query(TeamColumns.CONTENT_URI, new String[]{TeamColumns._ID, TeamColumns.TEAM_NAME},
+                null, null, TeamColumns._ID);
+        if (teamCursor != null) {
+            while (teamCursor.moveToNext()) {
+                teamTables.put(teamCursor.getLong(0), new TeamTable(teamCursor.getString(1)));
+            }
+            teamCursor.close();
+        }
+
+        // The members who have spoken in at least one meeting, like the Excel export.
+        // Closing the memberCursorWrapper will also close memberCursor
+        @SuppressLint("Recycle")
+        Cursor memberCursor = mContext.getContentResolver().query(MemberStatsColumns.CONTENT_URI,
+                new String[]{MemberColumns._ID, MemberStatsColumns.TEAM_ID, MemberColumns.NAME, MemberStatsColumns.AVG_DURATION,
+                        MemberStatsColumns.SUM_DURATION},
+                MemberStatsColumns.SUM_DURATION + " >= 1000 OR " + MemberStatsColumns.AVG_DURATION + " >= 1000",
+                null, MemberColumns.NAME);
+        if (memberCursor != null) {
+            MemberCursorWrapper memberCursorWrapper = new MemberCursorWrapper(memberCursor);
+            int teamIdIndex = memberCursor.getColumnIndexOrThrow(MemberStatsColumns.TEAM_ID);
+            while (memberCursor.moveToNext()) {
+                TeamTable teamTable = teamTables.get(memberCursor.getLong(teamIdIndex));
+                if (teamTable == null) continue;
+                teamTable.memberIndexes.put(memberCursorWrapper.getId(), teamTable.memberNames.size());
+                teamTable.memberNames.add(memberCursorWrapper.getName());
+                teamTable.avgMemberDurations.add(memberCursorWrapper.getAverageDuration());
+                teamTable.sumMemberDurations.add(memberCursorWrapper.getSumDuration());
+            }
+            memberCursorWrapper.close();
+        }
+        return teamTables;
+    }
+
+    /**
+     * Write the table of each team, reading the meetings of all the teams with a single query.
+     *
+     * @return the number of meetings written.
+     */
+    private int writeMeetings(Map<Long, TeamTable> teamTables) throws IOException {
+        // Closing meetingMemberCursorWrapper will also close meetingMemberCursor
+        @SuppressLint("Recycle")
+        Cursor meetingMemberCursor = mContext.getContentResolver().query(
+                MeetingMemberColumns.CONTENT_URI,
+                new String[]{
+                        MeetingColumns.TEAM_ID,
+                        MeetingMemberColumns.MEETING_ID,
+                        MeetingColumns.MEETING_DATE,
+                        MeetingColumns.TOTAL_DURATION,
+                        MeetingMemberColumns.MEMBER_ID,
+                        MeetingMemberColumns.DURATION},
+                MeetingMemberColumns.SELECTION_TALKED,
+                null,
+                MeetingColumns.TEAM_ID + ", "
+                        + MeetingColumns.MEETING_DATE + ", "
+                        + MeetingMemberColumns.MEETING_ID);
+        if (meetingMemberCursor == null) return 0;
+
+        MeetingMemberCursorWrapper meetingMemberCursorWrapper = new MeetingMemberCursorWrapper(meetingMemberCursor);
+        int teamIdIndex = meetingMemberCursor.getColumnIndexOrThrow(MeetingColumns.TEAM_ID);
+        int rowCount = meetingMemberCursor.getCount();
+        int meetingCount = 0;
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            boolean hasRow = meetingMemberCursorWrapper.moveToNext();
+            boolean isFirstTeam = true;
+            for (Map.Entry<Long, TeamTable> entry : teamTables.entrySet()) {
+                if (isCancelled()) break;
+                long teamId = entry.getKey();
+                TeamTable teamTable = entry.getValue();
+                if (!isFirstTeam) mWriter.write(LINE_SEPARATOR);
+                isFirstTeam = false;
+                writeHeader(teamTable);
+
+                // The rows of this team's meetings are next in the cursor, if it has meetings.
+                // Skip the rows of teams which don't exist anymore.
+                while (hasRow && meetingMemberCursor.getLong(teamIdIndex) < teamId) {
+                    hasRow = meetingMemberCursorWrapper.moveToNext();
+                }
+                long[] memberDurations = new long[teamTable.memberNames.size()];
+                int teamMeetingCount = 0;
+                long totalMeetingDuration = 0;
+                while (hasRow && meetingMemberCursor.getLong(teamIdIndex) == teamId && !isCancelled()) {
+                    publishProgress(meetingMemberCursor.getPosition(), rowCount);
+                    // Collect the durations of one meeting, then write its row.
+                    long meetingId = meetingMemberCursorWrapper.getMeetingId();
+                    long meetingDate = meetingMemberCursorWrapper.getMeetingDate();
+                    long meetingDuration = meetingMemberCursorWrapper.getTotalDuration();
+                    Arrays.fill(memberDurations, -1);
+                    do {
+                        Integer memberIndex = teamTable.memberIndexes.get(meetingMemberCursorWrapper.getMemberId());
+                        if (memberIndex != null) memberDurations[memberIndex] = meetingMemberCursorWrapper.getDuration();
+                        hasRow = meetingMemberCursorWrapper.moveToNext();
+                    } while (hasRow && meetingMemberCursorWrapper.getMeetingId() == meetingId);
+                    writeMeeting(meetingDate, memberDurations, meetingDuration);
+                    teamMeetingCount++;
+                    totalMeetingDuration += meetingDuration;
+                }
+                writeFooter(teamTable, teamMeetingCount, totalMeetingDuration);
+                meetingCount += teamMeetingCount;
+            }
+        } finally {
+            meetingMemberCursorWrapper.close();
+        }
+        return meetingCount;
+    }
+
+    /**
+     * Write the team name, and the column headings.
+     */
+    private void writeHeader(TeamTable teamTable) throws IOException {
+        writeCell(teamTable.teamName);
+        mWriter.write(LINE_SEPARATOR);
+        writeCell(mContext.getString(R.string.export_header_meeting_date));
+        for (String memberName : teamTable.memberNames) {
+            mWriter.write(mFormat.mSeparator);
+            writeCell(memberName);
+        }
+        mWriter.write(mFormat.mSeparator);
+        writeCell(mContext.getString(R.string.export_header_meeting_duration));
+        mWriter.write(LINE_SEPARATOR);
+    }
+
+    /**
+     * @param memberDurations the speaking time of each member, in seconds, or -1 if the member didn't speak.
+     */
+    private void writeMeeting(long meetingDate, long[] memberDurations, long meetingDuration) throws IOException {
+        mWriter.write(mDateFormat.format(new Date(meetingDate)));
+        for (long memberDuration : memberDurations) {
+            mWriter.write(mFormat.mSeparator);
+            if (memberDuration >= 0) writeDuration(memberDuration);
+        }
+        mWriter.write(mFormat.mSeparator);
+        writeDuration(meetingDuration);
+        mWriter.write(LINE_SEPARATOR);
+    }
+
+    /**
+     * Write the total and average durations of each member and of the meetings.
+     */
+    private void writeFooter(TeamTable teamTable, int meetingCount, long totalMeetingDuration) throws IOException {
+        writeCell(mContext.getString(R.string.member_list_header_sum_duration));
+        for (Integer sumMemberDuration : teamTable.sumMemberDurations) {
+            mWriter.write(mFormat.mSeparator);
+            writeDuration(sumMemberDuration);
+        }
+        mWriter.write(mFormat.mSeparator);
+        writeDuration(totalMeetingDuration);
+        mWriter.write(LINE_SEPARATOR);
+
+        writeCell(mContext.getString(R.string.member_list_header_avg_duration));
+        for (Integer avgMemberDuration : teamTable.avgMemberDurations) {
+            mWriter.write(mFormat.mSeparator);
+            writeDuration(avgMemberDuration);
+        }
+        mWriter.write(mFormat.mSeparator);
+        writeDuration(meetingCount == 0 ? 0 : totalMeetingDuration / meetingCount);
+        mWriter.write(LINE_SEPARATOR);
+    }
+
+    private void writeDuration(long durationInSeconds) throws IOException {
+        mWriter.write(DateUtils.formatElapsedTime(mDurationBuilder, durationInSeconds));
+    }
+
+    /**
+     * Write the given text, quoted if needed for CSV.  TSV has no quoting: tabs and line breaks are replaced with spaces.
+     */
+    private void writeCell(String text) throws IOException {
+        if (text == null) return;
+        if (mFormat == Format.TSV) {
+            mWriter.write(text.replace('\t', ' ').replace('\r', ' ').replace('\n', ' '));
+        } else if (text.indexOf(mFormat.mSeparator) >= 0 || text.indexOf('"') >= 0 || text.indexOf('\r') >= 0 || text.indexOf('\n') >= 0) {
+            mWriter.write('"');
+            mWriter.write(text.replace("\"", "\"\""));
+            mWriter.write('"');
+        } else {
+            mWriter.write(text);
+        }
+    }
+
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.export;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes an Office Open XML (.xlsx) workbook, one row at a time.
+ *
+ * The sheets are written one after the other, each one as a zip entry, so only the current row is kept in memory.
+ * Texts are written inline in the cells, instead of in a table of shared strings which would have to be built before
+ * the first sheet.  All the sheets share the same styles, which are the STYLE_* constants.
+ */
+class XlsxWriter implements Closeable {
+
+    static final int STYLE_DEFAULT = 0;
+    static final int STYLE_HEADER = 1;
+    static final int STYLE_DATE = 2;
+    static final int STYLE_SHORT_DURATION = 3;
+    static final int STYLE_LONG_DURATION = 4;
+    static final int STYLE_FOOTER_LABEL = 5;
+    static final int STYLE_FOOTER_LONG_DURATION = 6;
+    static final int STYLE_FOOTER_SHORT_DURATION = 7;
+
+    private static final int MAX_SHEET_NAME_LENGTH = 31;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+    // The day 0 of Excel dates is 1899-12-30, which is 25569 days before 1970-01-01.
+    private static final int EXCEL_EPOCH_OFFSET_DAYS = 25569;
+
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+    private static final String NS_MAIN = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    private static final String NS_RELATIONSHIPS = "http://schemas.openxmlformats.org/package/2006/relationships";
+    private static final String NS_DOCUMENT_RELATIONSHIPS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String CONTENT_TYPE_SHEET = "application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml";
+
+    // Built-in number formats: 45 is mm:ss, and 46 is [h]:mm:ss, which doesn't wrap after 24 hours.
+    // Ours start at 164.
+    private static final String STYLES = XML_DECLARATION
+            + "<styleSheet xmlns=\"" + NS_MAIN + "\">"
+            + "<numFmts count=\"1\"><numFmt numFmtId=\"164\" formatCode=\"dd\\-mmm\\-yyyy\\ hh:mm\"/></numFmts>"
+            + "<fonts count=\"2\">"
+            + "<font><sz val=\"10\"/><name val=\"Arial\"/></font>"
+            + "<font><b/><sz val=\"10\"/><name val=\"Arial\"/></font>"
+            + "</fonts>"
+            + "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"gray125\"/></fill></fills>"
+            + "<borders count=\"2\">"
+            + "<border><left/><right/><top/><bottom/><diagonal/></border>"
+            + "<border><left/><right/><top style=\"double\"/><bottom/><diagonal/></border>"
+            + "</borders>"
+            + "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>"
+            + "<cellXfs count=\"8\">"
+            + xf(0, 0, 0) // STYLE_DEFAULT
+            + xf(0, 1, 0) // STYLE_HEADER
+            + xf(164, 0, 0) // STYLE_DATE
+            + xf(45, 0, 0) // STYLE_SHORT_DURATION
+            + xf(46, 0, 0) // STYLE_LONG_DURATION
+            + xf(0, 1, 1) // STYLE_FOOTER_LABEL
+            + xf(46, 1, 1) // STYLE_FOOTER_LONG_DURATION
+            + xf(45, 1, 0) // STYLE_FOOTER_SHORT_DURATION
+            + "</cellXfs>"
+            + "<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>"
+            + "</styleSheet>";
+
+    private final ZipOutputStream mZipOutputStream;
+    private final Writer mWriter;
+    private final int mSheetCount;
+    private final TimeZone mTimeZone = TimeZone.getDefault();
+    private int mSheetIndex;
+    private int mRowIndex;
+    private int mColumnIndex;
+
+    /**
+     * Write the workbook, with the given sheets, to the given file.  The sheets are then written with
+     * {@link #beginSheet(double[])} and {@link #endSheet()}, in the same order.
+     */
+    XlsxWriter(File file, List<String> sheetNames) throws IOException {
+        mZipOutputStream = new ZipOutputStream(new FileOutputStream(file));
+        mWriter = new BufferedWriter(new OutputStreamWriter(mZipOutputStream, "UTF-8"), BUFFER_SIZE);
+        mSheetCount = sheetNames.size();
+        writeEntry("[Content_Types].xml", getContentTypes());
+        writeEntry("_rels/.rels", XML_DECLARATION
+                + "<Relationships xmlns=\"" + NS_RELATIONSHIPS + "\">"
+                + "<Relationship Id=\"rId1\" Type=\"" + NS_DOCUMENT_RELATIONSHIPS + "/officeDocument\" Target=\"xl/workbook.xml\"/>"
+                + "</Relationships>");
+        writeEntry("xl/workbook.xml", getWorkbook(sheetNames));
+        writeEntry("xl/_rels/workbook.xml.rels", getWorkbookRelationships());
+        writeEntry("xl/styles.xml", STYLES);
+    }
+
+    /**
+     * Start the next sheet.  Its first row and column don't scroll.
+     *
+     * @param columnWidths the width of each column, in characters.
+     */
+    void beginSheet(double[] columnWidths) throws IOException {
+        if (mSheetIndex >= mSheetCount) throw new IllegalStateException("All the " + mSheetCount + " sheets were already written");
+        mSheetIndex++;
+        mRowIndex = 0;
+        mZipOutputStream.putNextEntry(new ZipEntry("xl/worksheets/sheet" + mSheetIndex + ".xml"));
+        mWriter.write(XML_DECLARATION);
+        mWriter.write("<worksheet xmlns=\"" + NS_MAIN + "\">");
+        mWriter.write("<sheetViews><sheetView workbookViewId=\"0\">"
+                + "<pane xSplit=\"1\" ySplit=\"1\" topLeftCell=\"B2\" activePane=\"bottomRight\" state=\"frozen\"/>"
+                + "<selection pane=\"bottomRight\"/>"
+                + "</sheetView></sheetViews>");
+        if (columnWidths.length > 0) {
+            mWriter.write("<cols>");
+            for (int i = 0; i < columnWidths.length; i++) {
+                mWriter.write("<col min=\"" + (i + 1) + "\" max=\"" + (i + 1) + "\" width=\"" + columnWidths[i] + "\" customWidth=\"1\"/>");
+            }
+            mWriter.write("</cols>");
+        }
+        mWriter.write("<sheetData>");
+    }
+
+    void beginRow() throws IOException {
+        mRowIndex++;
+        mColumnIndex = 0;
+        mWriter.write("<row r=\"" + mRowIndex + "\">");
+    }
+
+    void writeText(String text, int style) throws IOException {
+        beginCell(style, "inlineStr");
+        mWriter.write("<is><t xml:space=\"preserve\">");
+        writeEscaped(text);
+        mWriter.write("</t></is></c>");
+    }
+
+    void writeNumber(double value, int style) throws IOException {
+        beginCell(style, null);
+        mWriter.write("<v>");
+        mWriter.write(String.valueOf(value));
+        mWriter.write("</v></c>");
+    }
+
+    /**
+     * Write a duration, which will be shown with the number format of the given style.
+     */
+    void writeDuration(long durationInSeconds, int style) throws IOException {
+        writeNumber((double) durationInSeconds / (24 * 60 * 60), style);
+    }
+
+    /**
+     * Write a date, in the local time zone, which will be shown with the number format of the given style.
+     */
+    void writeDate(long dateInMillis, int style) throws IOException {
+        long localMillis = dateInMillis + mTimeZone.getOffset(dateInMillis);
+        writeNumber((double) localMillis / MILLIS_PER_DAY + EXCEL_EPOCH_OFFSET_DAYS, style);
+    }
+
+    /**
+     * Leave the next cell of the row empty.
+     */
+    void skipCell() {
+        mColumnIndex++;
+    }
+
+    void endRow() throws IOException {
+        mWriter.write("</row>");
+    }
+
+    void endSheet() throws IOException {
+        mWriter.write("</sheetData></worksheet>");
+        mWriter.flush();
+        mZipOutputStream.closeEntry();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+
+    private void beginCell(int style, String type) throws IOException {
+        mWriter.write("<c r=\"");
+        mWriter.write(getColumnName(mColumnIndex));
+        mWriter.write(String.valueOf(mRowIndex));
+        mWriter.write("\"");
+        if (style != STYLE_DEFAULT) mWriter.write(" s=\"" + style + "\"");
+        if (type != null) mWriter.write(" t=\"" + type + "\"");
+        mWriter.write(">");
+        mColumnIndex++;
+    }
+
+    private void writeEntry(String name, String content) throws IOException {
+        mZipOutputStream.putNextEntry(new ZipEntry(name));
+        mWriter.write(content);
+        mWriter.flush();
+        mZipOutputStream.closeEntry();
+    }
+
+    private String getContentTypes() {
+        StringBuilder sb = new StringBuilder(XML_DECLARATION);
+        sb.append("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">")
+                .append("<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>")
+                .append("<Default Extension=\"xml\" ContentType=\"application/xml\"/>")
+                .append("<Override PartName=\"/xl/workbook.xml\"")
+                .append(" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>")
+                .append("<Override PartName=\"/xl/styles.xml\"")
+                .append(" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>");
+        for (int i = 1; i <= mSheetCount; i++) {
+            sb.append("<Override PartName=\"/xl/worksheets/sheet").append(i).append(".xml\" ContentType=\"")
+                    .append(CONTENT_TYPE_SHEET).append("\"/>");
+        }
+        return sb.append("</Types>").toString();
+    }
+
+    private static String getWorkbook(List<String> sheetNames) {
+        StringBuilder sb = new StringBuilder(XML_DECLARATION);
+        sb.append("<workbook xmlns=\"").append(NS_MAIN).append("\" xmlns:r=\"").append(NS_DOCUMENT_RELATIONSHIPS).append("\"><sheets>");
+        List<String> validSheetNames = getValidSheetNames(sheetNames);
+        for (int i = 1; i <= validSheetNames.size(); i++) {
+            sb.append("<sheet name=\"").append(escape(validSheetNames.get(i - 1))).append("\" sheetId=\"").append(i)
+                    .append("\" r:id=\"rId").append(i).append("\"/>");
+        }
+        return sb.append("</sheets></workbook>").toString();
+    }
+
+    private String getWorkbookRelationships() {
+        StringBuilder sb = new StringBuilder(XML_DECLARATION);
+        sb.append("<Relationships xmlns=\"").append(NS_RELATIONSHIPS).append("\">");
+        for (int i = 1; i <= mSheetCount; i++) {
+            sb.append("<Relationship Id=\"rId").append(i).append("\" Type=\"").append(NS_DOCUMENT_RELATIONSHIPS)
+                    .append("/worksheet\" Target=\"worksheets/sheet").append(i).append(".xml\"/>");
+        }
+        sb.append("<Relationship Id=\"rId").append(mSheetCount + 1).append("\" Type=\"").append(NS_DOCUMENT_RELATIONSHIPS)
+                .append("/styles\" Target=\"styles.xml\"/>");
+        return sb.append("</Relationships>").toString();
+    }
+
+    /**
+     * Excel sheet names have at most 31 characters, can't contain []:*?/\ and must be unique, ignoring the case.
+     */
+    private static List<String> getValidSheetNames(List<String> sheetNames) {
+        List<String> validSheetNames = new ArrayList<>(sheetNames.size());
+        Set<String> usedSheetNames = new HashSet<>();
+        for (String sheetName : sheetNames) {
+            String validSheetName = sheetName == null ? "" : sheetName.replaceAll("[\\[\\]:*?/\\\\]", "_").replaceAll("^'|'$", "").trim();
+            if (validSheetName.isEmpty()) validSheetName = "Sheet" + (validSheetNames.size() + 1);
+            if (validSheetName.length() > MAX_SHEET_NAME_LENGTH) validSheetName = validSheetName.substring(0, MAX_SHEET_NAME_LENGTH);
+            String uniqueSheetName = validSheetName;
+            for (int i = 2; !usedSheetNames.add(uniqueSheetName.toLowerCase(Locale.US)); i++) {
+                String suffix = " (" + i + ")";
+                uniqueSheetName = validSheetName.substring(0, Math.min(validSheetName.length(), MAX_SHEET_NAME_LENGTH - suffix.length())) + suffix;
+            }
+            validSheetNames.add(uniqueSheetName);
+        }
+        return validSheetNames;
+    }
+
+    /**
+     * @return the name of the column with the given index: A for 0, Z for 25, AA for 26...
+     */
+    private static String getColumnName(int columnIndex) {
+        StringBuilder sb = new StringBuilder(3);
+        for (int i = columnIndex + 1; i > 0; i = (i - 1) / 26) {
+            sb.insert(0, (char) ('A' + (i - 1) % 26));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return a cell format, centered like all the cells of the export.
+     */
+    private static String xf(int numFmtId, int fontId, int borderId) {
+        return "<xf numFmtId=\"" + numFmtId + "\" fontId=\"" + fontId + "\" fillId=\"0\" borderId=\"" + borderId + "\" xfId=\"0\""
+                + (numFmtId != 0 ? " applyNumberFormat=\"1\"" : "")
+                + (fontId != 0 ? " applyFont=\"1\"" : "")
+                + (borderId != 0 ? " applyBorder=\"1\"" : "")
+                + " applyAlignment=\"1\"><alignment horizontal=\"center\"/></xf>";
+    }
+
+    private void writeEscaped(String text) throws IOException {
+        if (text == null) return;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    mWriter.write("&amp;");
+                    break;
+                case '<':
+                    mWriter.write("&lt;");
+                    break;
+                case '>':
+                    mWriter.write("&gt;");
+                    break;
+                case '"':
+                    mWriter.write("&quot;");
+                    break;
+                default:
+                    // Control characters aren't allowed in XML.
+                    if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') mWriter.write(c);
+                    break;
+            }
+        }
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
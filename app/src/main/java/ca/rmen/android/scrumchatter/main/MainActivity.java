@@ -55,10 +55,15 @@ import ca.rmen.android.scrumchatter.dialog.ConfirmDialogFragment.DialogButtonLis
 import ca.rmen.android.scrumchatter.dialog.DialogFragmentFactory;
 import ca.rmen.android.scrumchatter.dialog.InputDialogFragment.DialogInputListener;
 import ca.rmen.android.scrumchatter.dialog.ProgressDialogFragment;
+import ca.rmen.android.scrumchatter.dialog.ProgressDialogFragment.DialogCancelListener;
+import ca.rmen.android.scrumchatter.export.BackupExport;
 import ca.rmen.android.scrumchatter.export.DBExport;
 import ca.rmen.android.scrumchatter.export.FileExport;
 import ca.rmen.android.scrumchatter.export.MeetingsExport;
+import ca.rmen.android.scrumchatter.export.MeetingsJsonExport;
+import ca.rmen.android.scrumchatter.export.MeetingsTextExport;
 import ca.rmen.android.scrumchatter.meeting.Meetings;
+import ca.rmen.android.scrumchatter.meeting.detail.Meeting;
 import ca.rmen.android.scrumchatter.meeting.detail.MeetingFragment;
 import ca.rmen.android.scrumchatter.meeting.list.MeetingsListFragment;
 import ca.rmen.android.scrumchatter.member.list.Members;
@@ -80,17 +85,28 @@ import io.reactivex.schedulers.Schedulers;
  * plugin.
  */
 public class MainActivity extends AppCompatActivity implements DialogButtonListener, DialogItemListener,
-        DialogInputListener {
+        DialogInputListener, DialogCancelListener {
 
     private static final String TAG = Constants.TAG + "/" + MainActivity.class.getSimpleName();
     private static final String EXTRA_IMPORT_URI = "import_uri";
     private static final String EXTRA_IMPORT_RESULT = "import_result";
+    private static final String EXTRA_IMPORT_MERGE = "import_merge";
+    private static final String EXTRA_IMPORT_ROWS_WRITTEN = "import_rows_written";
+    private static final String EXTRA_IMPORT_ROWS_SKIPPED = "import_rows_skipped";
     private static final String EXTRA_EXPORT_RESULT = "export_result";
+    private static final String EXTRA_EXPORT_CANCELLED = "export_cancelled";
+    private static final String EXTRA_EXPORT_PROGRESS = "export_progress";
     private static final String ACTION_IMPORT_COMPLETE = "action_import_complete";
     private static final String ACTION_EXPORT_COMPLETE = "action_export_complete";
+    private static final String ACTION_EXPORT_PROGRESS = "action_export_progress";
     private static final int ACTIVITY_REQUEST_CODE_IMPORT = 1;
+    private static final int ACTIVITY_REQUEST_CODE_IMPORT_MERGE = 2;
     private static final String PROGRESS_DIALOG_FRAGMENT_TAG = "progress_dialog_fragment_tag";
 
+    // The export in progress, if any.  It outlives the activity, which is recreated when the device is rotated,
+    // so that the cancel button of the restored progress dialog can still stop it.
+    private static volatile FileExport sFileExport;
+
     /**
      * UI elements for the side menu (left drawer).
      */
@@ -167,7 +183,11 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
         mBinding.leftDrawer.setNavigationItemSelectedListener(mOnNavigationItemSelectedListener);
         IntentFilter filter = new IntentFilter(ACTION_IMPORT_COMPLETE);
         filter.addAction(ACTION_EXPORT_COMPLETE);
+        filter.addAction(ACTION_EXPORT_PROGRESS);
         LocalBroadcastManager.getInstance(getApplicationContext()).registerReceiver(mBroadcastReceiver, filter);
+
+        // If the app was killed during a meeting, stop the chronometers it left running, in the background.
+        Schedulers.io().scheduleDirect(() -> Meeting.stopInterruptedTurns(getApplicationContext()));
     }
 
     @Override
@@ -196,7 +216,9 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
                 // Remove the uri extra, otherwise the confirmation dialog will keep popping up when
                 // we rotate the device.
                 getIntent().removeExtra(EXTRA_IMPORT_URI);
-                importDB(importUri);
+                boolean merge = getIntent().getBooleanExtra(EXTRA_IMPORT_MERGE, false);
+                getIntent().removeExtra(EXTRA_IMPORT_MERGE);
+                importDB(importUri, merge);
             }
         }
     }
@@ -273,7 +295,10 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
                 mTeams.confirmDeleteTeam(mTeam);
                 return true;
             case R.id.action_import:
-                startFileChooser();
+                startFileChooser(ACTIVITY_REQUEST_CODE_IMPORT);
+                return true;
+            case R.id.action_import_merge:
+                startFileChooser(ACTIVITY_REQUEST_CODE_IMPORT_MERGE);
                 return true;
             case R.id.action_charts:
                 startActivity(new Intent(this, ChartsActivity.class));
@@ -300,7 +325,7 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
     protected void onActivityResult(int requestCode, int resultCode, Intent intent) {
         Log.v(TAG, "onActivityResult: requestCode = " + requestCode + ", resultCode = " + resultCode + ", intent = " + intent);
         // The user chose a DB file to import.
-        if (requestCode == ACTIVITY_REQUEST_CODE_IMPORT && resultCode == Activity.RESULT_OK) {
+        if ((requestCode == ACTIVITY_REQUEST_CODE_IMPORT || requestCode == ACTIVITY_REQUEST_CODE_IMPORT_MERGE) && resultCode == Activity.RESULT_OK) {
             if (intent == null || intent.getData() == null) {
                 Snackbar.make(mBinding.getRoot(), R.string.import_result_no_file, Snackbar.LENGTH_SHORT).show();
                 return;
@@ -312,6 +337,7 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
             }
             // Save the uri of the file.  We will import it in onResumeFragments.
             getIntent().putExtra(EXTRA_IMPORT_URI, intent.getData());
+            getIntent().putExtra(EXTRA_IMPORT_MERGE, requestCode == ACTIVITY_REQUEST_CODE_IMPORT_MERGE);
         } else {
             super.onActivityResult(requestCode, resultCode, intent);
         }
@@ -329,13 +355,15 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
     }
 
     /**
-     * Import the given database file. This will replace the current database.
+     * Import the given database file. This will replace the current database, or, if merge is true, add the data
+     * of the file which isn't in the current database.
      */
-    private void importDB(final Uri uri) {
-        Bundle extras = new Bundle(1);
+    private void importDB(final Uri uri, boolean merge) {
+        Bundle extras = new Bundle(2);
         extras.putParcelable(EXTRA_IMPORT_URI, uri);
+        extras.putBoolean(EXTRA_IMPORT_MERGE, merge);
         DialogFragmentFactory.showConfirmDialog(this, getString(R.string.import_confirm_title),
-                getString(R.string.import_confirm_message, uri.getEncodedPath()), R.id.action_import, extras);
+                getString(merge ? R.string.import_merge_confirm_message : R.string.import_confirm_message, uri.getEncodedPath()), R.id.action_import, extras);
     }
 
     /**
@@ -344,11 +372,20 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
      * @param fileExport The object responsible for creating the file to share.
      */
     private void shareFile(final FileExport fileExport) {
-        DialogFragmentFactory.showProgressDialog(MainActivity.this, getString(R.string.progress_dialog_message), PROGRESS_DIALOG_FRAGMENT_TAG);
+        sFileExport = fileExport;
+        DialogFragmentFactory.showProgressDialog(MainActivity.this, getString(R.string.progress_dialog_message), PROGRESS_DIALOG_FRAGMENT_TAG,
+                R.id.action_share);
+        fileExport.setProgressListener(percent -> {
+            Intent intent = new Intent(ACTION_EXPORT_PROGRESS);
+            intent.putExtra(EXTRA_EXPORT_PROGRESS, percent);
+            LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(intent);
+        });
         Schedulers.io().scheduleDirect(() -> {
                     boolean result = fileExport.export();
+                    if (sFileExport == fileExport) sFileExport = null;
                     Intent intent = new Intent(ACTION_EXPORT_COMPLETE);
                     intent.putExtra(EXTRA_EXPORT_RESULT, result);
+                    intent.putExtra(EXTRA_EXPORT_CANCELLED, fileExport.isCancelled());
                     LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(intent);
                     Log.v(TAG, "broadcast " + intent);
                 }
@@ -419,12 +456,22 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
             mTeams.deleteTeam(teamUri);
         } else if (actionId == R.id.action_import) {
             final Uri uri = extras.getParcelable(EXTRA_IMPORT_URI);
+            final boolean merge = extras.getBoolean(EXTRA_IMPORT_MERGE);
             DialogFragmentFactory.showProgressDialog(MainActivity.this, getString(R.string.progress_dialog_message), PROGRESS_DIALOG_FRAGMENT_TAG);
             Schedulers.io().scheduleDirect(() -> {
                 boolean result = false;
+                Intent intent = new Intent(ACTION_IMPORT_COMPLETE);
                 try {
-                    Log.v(TAG, "Importing db from " + uri);
-                    DBImport.importDB(MainActivity.this, uri);
+                    Log.v(TAG, "Importing db from " + uri + ", merge = " + merge);
+                    Meeting.discardSessions();
+                    if (merge) {
+                        DBImport.MergeResult mergeResult = DBImport.mergeDB(MainActivity.this, uri);
+                        intent.putExtra(EXTRA_IMPORT_MERGE, true)
+                                .putExtra(EXTRA_IMPORT_ROWS_WRITTEN, mergeResult.rowsWritten)
+                                .putExtra(EXTRA_IMPORT_ROWS_SKIPPED, mergeResult.rowsSkipped);
+                    } else {
+                        DBImport.importDB(MainActivity.this, uri);
+                    }
                     result = true;
                 } catch (Exception e) {
                     Log.e(TAG, "Error importing db: " + e.getMessage(), e);
@@ -432,7 +479,7 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
                 // Notify ourselves with a broadcast.  If the user rotated the device, this activity
                 // won't be visible any more. The new activity will receive the broadcast and update
                 // the UI.
-                Intent intent = new Intent(ACTION_IMPORT_COMPLETE).putExtra(EXTRA_IMPORT_RESULT, result);
+                intent.putExtra(EXTRA_IMPORT_RESULT, result);
                 LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(intent);
             });
         }
@@ -453,12 +500,35 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
             FileExport fileExport = null;
             if (getString(R.string.export_format_excel).equals(choices[which]))
                 fileExport = new MeetingsExport(MainActivity.this);
+            else if (getString(R.string.export_format_csv).equals(choices[which]))
+                fileExport = new MeetingsTextExport(MainActivity.this, MeetingsTextExport.Format.CSV);
+            else if (getString(R.string.export_format_tsv).equals(choices[which]))
+                fileExport = new MeetingsTextExport(MainActivity.this, MeetingsTextExport.Format.TSV);
+            else if (getString(R.string.export_format_ndjson).equals(choices[which]))
+                fileExport = new MeetingsJsonExport(MainActivity.this);
             else if (getString(R.string.export_format_db).equals(choices[which]))
                 fileExport = new DBExport(MainActivity.this);
+            else if (getString(R.string.export_format_backup).equals(choices[which]))
+                fileExport = new BackupExport(MainActivity.this);
             shareFile(fileExport);
         }
     }
 
+    /**
+     * The user tapped on the cancel button of a progress dialog.
+     *
+     * @param actionId the action id which was provided to the {@link DialogFragmentFactory} when creating the dialog.
+     * @see ca.rmen.android.scrumchatter.dialog.ProgressDialogFragment.DialogCancelListener#onCancelClicked(int)
+     */
+    @Override
+    public void onCancelClicked(int actionId) {
+        Log.v(TAG, "onCancelClicked: actionId = " + actionId);
+        FileExport fileExport = sFileExport;
+        if (actionId == R.id.action_share && fileExport != null) {
+            fileExport.cancel();
+        }
+    }
+
     /**
      * The user tapped on the OK button on a dialog in which s/he entered text.
      *
@@ -484,13 +554,13 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
         }
     }
 
-    private void startFileChooser() {
+    private void startFileChooser(int requestCode) {
         final Intent importIntent;
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) importIntent = new Intent(Intent.ACTION_GET_CONTENT);
         else importIntent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
         importIntent.setType("*/*");
         importIntent.addCategory(Intent.CATEGORY_OPENABLE);
-        startActivityForResult(Intent.createChooser(importIntent, getResources().getText(R.string.action_import)), ACTIVITY_REQUEST_CODE_IMPORT);
+        startActivityForResult(Intent.createChooser(importIntent, getResources().getText(R.string.action_import)), requestCode);
     }
 
     private final BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
@@ -503,14 +573,25 @@ public class MainActivity extends AppCompatActivity implements DialogButtonListe
                 Boolean result = intent.getExtras().getBoolean(EXTRA_IMPORT_RESULT);
                 ProgressDialogFragment dialogFragment = (ProgressDialogFragment) getSupportFragmentManager().findFragmentByTag(PROGRESS_DIALOG_FRAGMENT_TAG);
                 if (dialogFragment != null) dialogFragment.dismiss();
-                Snackbar.make(mBinding.getRoot(), result ? R.string.import_result_success : R.string.import_result_failed, Snackbar.LENGTH_SHORT).show();
+                if (result && intent.getBooleanExtra(EXTRA_IMPORT_MERGE, false)) {
+                    String message = getString(R.string.import_merge_result_success, intent.getIntExtra(EXTRA_IMPORT_ROWS_WRITTEN, 0),
+                            intent.getIntExtra(EXTRA_IMPORT_ROWS_SKIPPED, 0));
+                    Snackbar.make(mBinding.getRoot(), message, Snackbar.LENGTH_LONG).show();
+                } else {
+                    Snackbar.make(mBinding.getRoot(), result ? R.string.import_result_success : R.string.import_result_failed, Snackbar.LENGTH_SHORT).show();
+                }
+            }
+            // The file export has progressed.  Update the progress dialog.
+            else if (ACTION_EXPORT_PROGRESS.equals(intent.getAction())) {
+                ProgressDialogFragment dialogFragment = (ProgressDialogFragment) getSupportFragmentManager().findFragmentByTag(PROGRESS_DIALOG_FRAGMENT_TAG);
+                if (dialogFragment != null) dialogFragment.setProgress(intent.getIntExtra(EXTRA_EXPORT_PROGRESS, 0));
             }
             // The file export has completed.  Dismiss the progress dialog and, if there was an error, show a toast.
             else if (ACTION_EXPORT_COMPLETE.equals(intent.getAction())) {
                 Boolean result = intent.getExtras().getBoolean(EXTRA_EXPORT_RESULT);
                 ProgressDialogFragment dialogFragment = (ProgressDialogFragment) getSupportFragmentManager().findFragmentByTag(PROGRESS_DIALOG_FRAGMENT_TAG);
                 if (dialogFragment != null) dialogFragment.dismiss();
-                if (!result)
+                if (!result && !intent.getBooleanExtra(EXTRA_EXPORT_CANCELLED, false))
                     Snackbar.make(mBinding.getRoot(), R.string.export_error, Snackbar.LENGTH_LONG).show();
 
             }
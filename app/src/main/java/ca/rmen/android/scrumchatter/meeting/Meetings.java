@@ -18,7 +18,6 @@
  */
 package ca.rmen.android.scrumchatter.meeting;
 
-import android.database.Cursor;
 import android.os.Bundle;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.FragmentActivity;
@@ -28,7 +27,6 @@ import ca.rmen.android.scrumchatter.R;
 import ca.rmen.android.scrumchatter.dialog.DialogFragmentFactory;
 import ca.rmen.android.scrumchatter.export.MeetingExport;
 import ca.rmen.android.scrumchatter.meeting.detail.Meeting;
-import ca.rmen.android.scrumchatter.provider.MemberColumns;
 import ca.rmen.android.scrumchatter.util.Log;
 import ca.rmen.android.scrumchatter.util.TextUtils;
 import io.reactivex.Single;
@@ -49,25 +47,12 @@ public class Meetings {
     }
 
     /**
-     * Checks if there are any team members in the given team id. If not, an error dialog is shown. If the team does have members, then we start
-     * the MeetingActivity class for a new meeting.
+     * Creates a new meeting in the given team.  The provider doesn't create the meeting if the team has no members: the
+     * returned Single then fails.
      */
     public Single<Meeting> createMeeting(final int teamId) {
         Log.v(TAG, "createMeeting in team " + teamId);
-        return Single.fromCallable(() -> {
-            Cursor c = mActivity.getContentResolver().query(MemberColumns.CONTENT_URI, new String[]{"count(*)"},
-                    MemberColumns.TEAM_ID + "=? AND " + MemberColumns.DELETED + "= 0", new String[]{String.valueOf(teamId)}, null);
-            if (c != null) {
-                try {
-                    c.moveToFirst();
-                    int memberCount = c.getInt(0);
-                    if (memberCount > 0) return Meeting.createNewMeeting(mActivity);
-                } finally {
-                    c.close();
-                }
-            }
-            throw new IllegalArgumentException("Can't create meeting for team " + teamId + " because it doesn't exist or has no members");
-        })
+        return Single.fromCallable(() -> Meeting.createNewMeeting(mActivity))
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread());
     }
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.meeting.detail;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.provider.MeetingColumns;
+import ca.rmen.android.scrumchatter.provider.MeetingMemberColumns;
+import ca.rmen.android.scrumchatter.provider.ScrumChatterProvider;
+import ca.rmen.android.scrumchatter.provider.SpeakingEventColumns.EventType;
+import ca.rmen.android.scrumchatter.util.Clock;
+import ca.rmen.android.scrumchatter.util.Log;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Owns the state of a meeting in progress in memory: who is talking, since when, and how long each member has talked.
+ *
+ * Changes are published to the listener right away.  Each change is a speaking event: the events are appended to the
+ * speaking_event table in the background, a few seconds later, in one transaction, and the provider applies them to the
+ * meeting_member table.  The rows in the meeting_member table are the checkpoint of the session: if the process dies,
+ * the session is read again from them.
+ *
+ * While the session is open, it writes a heartbeat every few seconds.  If the process dies while a member is talking,
+ * their turn is stopped at the last heartbeat, the next time the app starts, before any session is opened.
+ */
+class LiveMeetingSession {
+    private static final String TAG = Constants.TAG + "/" + LiveMeetingSession.class.getSimpleName();
+
+    // Wait this long after a change before writing it, so a few quick changes are written together.
+    private static final long FLUSH_DELAY_MS = 2000;
+    // At most this much of a turn is lost if the process dies.
+    private static final long HEARTBEAT_INTERVAL_MS = 15000;
+
+    private static final Map<Long, LiveMeetingSession> sSessions = new HashMap<>();
+    private static boolean sInterruptedTurnsStopped;
+
+    interface SessionListener {
+        @MainThread
+        void onSessionChanged();
+    }
+
+    private static class SpeakingEvent {
+        final long memberId;
+        final EventType eventType;
+        final long time;
+
+        SpeakingEvent(long memberId, EventType eventType, long time) {
+            this.memberId = memberId;
+            this.eventType = eventType;
+            this.time = time;
+        }
+    }
+
+    private static class MemberState {
+        // in milliseconds
+        long duration;
+        // read from the Clock, in milliseconds since 1970, or 0 if the member isn't talking.
+        long talkStartTime;
+        // read from Clock.elapsedRealtime(), or 0 if the member started talking before this session was created.
+        long talkStartElapsedRealtime;
+    }
+
+    private final Context mContext;
+    private final Clock mClock;
+    private final long mMeetingId;
+    private final Map<Long, MemberState> mMembers = new HashMap<>();
+    private final List<SpeakingEvent> mPendingEvents = new ArrayList<>();
+    private final Object mFlushLock = new Object();
+    private long mTalkingMemberId = -1;
+    private boolean mFlushScheduled;
+    private boolean mClosed;
+    private SessionListener mListener;
+    private Disposable mHeartbeat;
+
+    private LiveMeetingSession(Context context, long meetingId) {
+        mContext = context.getApplicationContext();
+        mClock = Clock.getInstance();
+        mMeetingId = meetingId;
+    }
+
+    /**
+     * @return the session of the given meeting.  If the meeting has no session yet, it is created from what was last
+     * written to the DB.
+     */
+    @WorkerThread
+    static LiveMeetingSession open(Context context, long meetingId) {
+        synchronized (sSessions) {
+            LiveMeetingSession session = sSessions.get(meetingId);
+            if (session == null) {
+                stopInterruptedTurns(context);
+                session = new LiveMeetingSession(context, meetingId);
+                session.load();
+                session.startHeartbeat();
+                sSessions.put(meetingId, session);
+            }
+            return session;
+        }
+    }
+
+    /**
+     * Stop the turns which were left open in the DB by a process which died during a meeting, at the last heartbeat of
+     * their meeting.  Only the first call in the process does something: the turns of the sessions opened afterwards
+     * aren't interrupted.
+     */
+    @WorkerThread
+    static void stopInterruptedTurns(Context context) {
+        synchronized (sSessions) {
+            if (sInterruptedTurnsStopped) return;
+            sInterruptedTurnsStopped = true;
+            long startTime = SystemClock.elapsedRealtime();
+            context.getContentResolver().call(MeetingMemberColumns.CONTENT_URI, ScrumChatterProvider.METHOD_STOP_INTERRUPTED_TURNS, null, null);
+            Log.v(TAG, "stopInterruptedTurns in " + (SystemClock.elapsedRealtime() - startTime) + "ms");
+        }
+    }
+
+    /**
+     * Write the pending changes of the given meeting, if it has a session, and forget the session.
+     */
+    @WorkerThread
+    static void close(long meetingId) {
+        LiveMeetingSession session;
+        synchronized (sSessions) {
+            session = sSessions.remove(meetingId);
+        }
+        if (session != null) {
+            session.flush(true);
+            session.markClosed();
+        }
+    }
+
+    /**
+     * Forget the session of the given meeting, if any, without writing its pending changes.  Waits for a write of the
+     * session which is in progress, if any.
+     */
+    @WorkerThread
+    static void discard(long meetingId) {
+        LiveMeetingSession session;
+        synchronized (sSessions) {
+            session = sSessions.remove(meetingId);
+        }
+        if (session != null) session.markClosed();
+    }
+
+    /**
+     * Forget the sessions of all the meetings, without writing their pending changes.  Call this before the meetings
+     * are replaced or deleted other than by {@link Meeting#delete()}: the sessions would write to meetings which don't
+     * exist anymore.  The meetings which are still in progress afterwards get a new session from the DB.  When this
+     * returns, none of the sessions are writing to the DB anymore.
+     */
+    @WorkerThread
+    static void discardAll() {
+        List<LiveMeetingSession> sessions;
+        synchronized (sSessions) {
+            sessions = new ArrayList<>(sSessions.values());
+            sSessions.clear();
+        }
+        for (LiveMeetingSession session : sessions) session.markClosed();
+    }
+
+    /**
+     * Read the members of the meeting, the time they have talked, and who is talking.
+     */
+    private void load() {
+        long startTime = SystemClock.elapsedRealtime();
+        Uri uri = Uri.withAppendedPath(MeetingMemberColumns.CONTENT_URI, String.valueOf(mMeetingId));
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                new String[]{MeetingMemberColumns.MEMBER_ID, MeetingMemberColumns.DURATION, MeetingMemberColumns.TALK_START_TIME},
+                null, null, null);
+        if (cursor == null) return;
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            while (cursor.moveToNext()) {
+                MemberState memberState = new MemberState();
+                long memberId = cursor.getLong(0);
+                memberState.duration = cursor.getLong(1);
+                memberState.talkStartTime = cursor.getLong(2);
+                if (memberState.talkStartTime > 0) mTalkingMemberId = memberId;
+                mMembers.put(memberId, memberState);
+            }
+        } finally {
+            cursor.close();
+        }
+        Log.v(TAG, "load: meeting " + mMeetingId + ": " + mMembers.size() + " members, talking member " + mTalkingMemberId
+                + " in " + (SystemClock.elapsedRealtime() - startTime) + "ms");
+    }
+
+    private void startHeartbeat() {
+        mHeartbeat = Schedulers.io().schedulePeriodicallyDirect(this::writeHeartbeat, 0, HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @WorkerThread
+    private void writeHeartbeat() {
+        // Like a flush, a heartbeat must be written before the session is closed, or not at all.
+        synchronized (mFlushLock) {
+            synchronized (this) {
+                if (mClosed) return;
+            }
+            Bundle extras = new Bundle(2);
+            extras.putLong(ScrumChatterProvider.EXTRA_MEETING_ID, mMeetingId);
+            extras.putLong(ScrumChatterProvider.EXTRA_TIME, mClock.now());
+            try {
+                mContext.getContentResolver().call(MeetingColumns.CONTENT_URI, ScrumChatterProvider.METHOD_HEARTBEAT, null, extras);
+            } catch (SQLException e) {
+                Log.w(TAG, "writeHeartbeat: couldn't write the heartbeat of meeting " + mMeetingId + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    synchronized void setListener(SessionListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return false if the member isn't in this meeting, or the session is closed: the member should be displayed from the DB.
+     */
+    synchronized boolean hasMember(long memberId) {
+        return !mClosed && mMembers.containsKey(memberId);
+    }
+
+    synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * @return the time the member talked, in milliseconds, not counting the time since they started talking, if they are talking now.
+     */
+    synchronized long getDuration(long memberId) {
+        MemberState memberState = mMembers.get(memberId);
+        return memberState == null ? 0 : memberState.duration;
+    }
+
+    /**
+     * @return the time the member started talking, or 0 if they aren't talking.
+     */
+    synchronized long getTalkStartTime(long memberId) {
+        MemberState memberState = mMembers.get(memberId);
+        return memberState == null ? 0 : memberState.talkStartTime;
+    }
+
+    /**
+     * If the team member is talking, stop them. Otherwise, stop the member who is talking, if any, and start this one.
+     *
+     * @return false if the member isn't in this meeting, or the session is closed.
+     */
+    boolean toggleTalkingMember(long memberId) {
+        SessionListener listener;
+        synchronized (this) {
+            if (mClosed) return false;
+            MemberState memberState = mMembers.get(memberId);
+            if (memberState == null) return false;
+            long now = mClock.now();
+            long elapsedRealtime = mClock.elapsedRealtime();
+            if (memberState.talkStartTime > 0) {
+                stopTalking(memberId, memberState, now, elapsedRealtime);
+            } else {
+                if (mTalkingMemberId != -1) stopTalking(mTalkingMemberId, mMembers.get(mTalkingMemberId), now, elapsedRealtime);
+                memberState.talkStartTime = now;
+                memberState.talkStartElapsedRealtime = elapsedRealtime;
+                mTalkingMemberId = memberId;
+                mPendingEvents.add(new SpeakingEvent(memberId, EventType.START, now));
+            }
+            Log.v(TAG, "toggleTalkingMember " + memberId + ": talking member " + mTalkingMemberId);
+            scheduleFlush();
+            listener = mListener;
+        }
+        if (listener != null) AndroidSchedulers.mainThread().scheduleDirect(listener::onSessionChanged);
+        return true;
+    }
+
+    /**
+     * The stop event is dated so that the DB counts the same duration as the session.
+     */
+    private void stopTalking(long memberId, MemberState memberState, long now, long elapsedRealtime) {
+        long duration = getTurnDuration(memberState.talkStartTime, memberState.talkStartElapsedRealtime, now, elapsedRealtime);
+        memberState.duration += duration;
+        long stopTime = memberState.talkStartTime + duration;
+        memberState.talkStartTime = 0;
+        memberState.talkStartElapsedRealtime = 0;
+        if (mTalkingMemberId == memberId) mTalkingMemberId = -1;
+        mPendingEvents.add(new SpeakingEvent(memberId, EventType.STOP, stopTime));
+    }
+
+    /**
+     * The turn is measured with the elapsed realtime if it started in this session, so that it isn't changed by a
+     * change of the wall clock.  A turn which started before, maybe in another process, can only be measured with
+     * the wall clock.
+     *
+     * @param talkStartElapsedRealtime 0 if the turn didn't start in this session.
+     * @return the duration of the turn, in milliseconds.  Never negative.
+     */
+    @VisibleForTesting
+    static long getTurnDuration(long talkStartTime, long talkStartElapsedRealtime, long now, long elapsedRealtime) {
+        if (talkStartElapsedRealtime > 0) return Math.max(0, elapsedRealtime - talkStartElapsedRealtime);
+        return Math.max(0, now - talkStartTime);
+    }
+
+    private void scheduleFlush() {
+        if (mFlushScheduled) return;
+        mFlushScheduled = true;
+        Schedulers.io().scheduleDirect(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Append the events since the last flush to the DB, in a single transaction.
+     */
+    @WorkerThread
+    void flush() {
+        flush(false);
+    }
+
+    /**
+     * @param close if true, the session is closed when its pending events are taken, under the same lock: a change made
+     *              while the events are written can't be left behind.
+     */
+    private void flush(boolean close) {
+        // Don't let two flushes append their events in the wrong order.
+        synchronized (mFlushLock) {
+            long[] memberIds;
+            int[] eventTypes;
+            long[] times;
+            synchronized (this) {
+                mFlushScheduled = false;
+                if (mClosed) return;
+                if (close) mClosed = true;
+                if (mPendingEvents.isEmpty()) return;
+                int count = mPendingEvents.size();
+                memberIds = new long[count];
+                eventTypes = new int[count];
+                times = new long[count];
+                for (int i = 0; i < count; i++) {
+                    SpeakingEvent event = mPendingEvents.get(i);
+                    memberIds[i] = event.memberId;
+                    eventTypes[i] = event.eventType.ordinal();
+                    times[i] = event.time;
+                }
+                mPendingEvents.clear();
+            }
+            long startTime = SystemClock.elapsedRealtime();
+            Bundle extras = new Bundle(4);
+            extras.putLong(ScrumChatterProvider.EXTRA_MEETING_ID, mMeetingId);
+            extras.putLongArray(ScrumChatterProvider.EXTRA_MEMBER_IDS, memberIds);
+            extras.putIntArray(ScrumChatterProvider.EXTRA_EVENT_TYPES, eventTypes);
+            extras.putLongArray(ScrumChatterProvider.EXTRA_TIMES, times);
+            try {
+                mContext.getContentResolver().call(MeetingMemberColumns.CONTENT_URI, ScrumChatterProvider.METHOD_APPEND_SPEAKING_EVENTS, null, extras);
+            } catch (SQLException e) {
+                // The meeting or one of its members was deleted.  The io scheduler would crash the app with this exception.
+                Log.w(TAG, "flush: couldn't append " + memberIds.length + " events to meeting " + mMeetingId + ": " + e.getMessage(), e);
+                return;
+            }
+            Log.v(TAG, "flush: meeting " + mMeetingId + ": appended " + memberIds.length + " events in "
+                    + (SystemClock.elapsedRealtime() - startTime) + "ms");
+        }
+    }
+
+    /**
+     * Stop the heartbeat, and let the listener know that this session can't be displayed anymore.  If a flush or a
+     * heartbeat is being written, wait for it to finish: the caller may replace or delete the meeting next.
+     */
+    @WorkerThread
+    private void markClosed() {
+        SessionListener listener;
+        synchronized (mFlushLock) {
+            synchronized (this) {
+                mClosed = true;
+                listener = mListener;
+                mListener = null;
+                if (mHeartbeat != null) mHeartbeat.dispose();
+            }
+        }
+        if (listener != null) AndroidSchedulers.mainThread().scheduleDirect(listener::onSessionChanged);
+    }
+}
@@ -18,26 +18,24 @@
  */
 package ca.rmen.android.scrumchatter.meeting.detail;
 
-import java.util.ArrayList;
-
 import android.annotation.SuppressLint;
-import android.content.ContentProviderOperation;
-import android.content.ContentProviderOperation.Builder;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.WorkerThread;
 
 import ca.rmen.android.scrumchatter.settings.Prefs;
+import ca.rmen.android.scrumchatter.util.Clock;
 import ca.rmen.android.scrumchatter.util.Log;
 import ca.rmen.android.scrumchatter.Constants;
 import ca.rmen.android.scrumchatter.provider.MeetingColumns;
 import ca.rmen.android.scrumchatter.provider.MeetingColumns.State;
 import ca.rmen.android.scrumchatter.provider.MeetingCursorWrapper;
 import ca.rmen.android.scrumchatter.provider.MeetingMemberColumns;
-import ca.rmen.android.scrumchatter.provider.MeetingMemberCursorWrapper;
 import ca.rmen.android.scrumchatter.provider.ScrumChatterProvider;
 
 /**
@@ -101,15 +99,17 @@ public class Meeting {
     }
 
     /**
-     * Create a new Meeting. This persists the new meeting to the DB.
+     * Create a new Meeting. This persists the new meeting to the DB, with all the members of the team.
+     *
+     * @throws IllegalStateException if the meeting couldn't be created, for example if the team has no members.
      */
     @WorkerThread
     public static Meeting createNewMeeting(Context context) {
         Log.v(TAG, "create new meeting");
         int teamId = Prefs.getInstance(context).getTeamId();
         ContentValues values = new ContentValues();
-        long startDate = System.currentTimeMillis();
-        values.put(MeetingColumns.MEETING_DATE, System.currentTimeMillis());
+        long startDate = Clock.getInstance().now();
+        values.put(MeetingColumns.MEETING_DATE, startDate);
         values.put(MeetingColumns.TEAM_ID, teamId);
         Uri newMeetingUri = context.getContentResolver().insert(MeetingColumns.CONTENT_URI, values);
         if (newMeetingUri != null) {
@@ -120,6 +120,25 @@ public class Meeting {
         }
     }
 
+    /**
+     * Stop the chronometers which were left running when the app was killed during a meeting, in all the teams.  Each
+     * turn ends at the last time its meeting was known to be running.  Only the first call in the process does something.
+     */
+    @WorkerThread
+    public static void stopInterruptedTurns(Context context) {
+        LiveMeetingSession.stopInterruptedTurns(context);
+    }
+
+    /**
+     * Forget the meetings in progress which are kept in memory, without writing their pending changes.  Call this before
+     * meetings are replaced or deleted, other than with {@link #delete()}.  Waits for the writes of the sessions which
+     * are in progress.
+     */
+    @WorkerThread
+    public static void discardSessions() {
+        LiveMeetingSession.discardAll();
+    }
+
     public long getId() {
         return mId;
     }
@@ -145,18 +164,20 @@ public class Meeting {
          * meeting goes from not-started to in-progress. This way it is
          * easier to track the duration of the meeting.
          */
-        mStartDate = System.currentTimeMillis();
+        mStartDate = Clock.getInstance().now();
         mState = State.IN_PROGRESS;
         save();
     }
 
     /**
      * Updates the meeting duration to time elapsed since startDate, sets the state to finished, and persists the changes.
+     * The pending changes of the {@link LiveMeetingSession} of this meeting, if any, are written first.
      */
+    @WorkerThread
     void stop() {
         mState = State.FINISHED;
-        long meetingDuration = System.currentTimeMillis() - mStartDate;
-        mDuration = meetingDuration / 1000;
+        mDuration = Clock.getInstance().since(mStartDate) / 1000;
+        LiveMeetingSession.close(mId);
         shutEverybodyUp();
         save();
     }
@@ -167,86 +188,26 @@ public class Meeting {
      */
     private void shutEverybodyUp() {
         Log.v(TAG, "shutEverybodyUp");
-        // Query all team members who are still talking in this meeting.
-        Uri uri = Uri.withAppendedPath(MeetingMemberColumns.CONTENT_URI, String.valueOf(mId));
-        // Closing the cursorWrapper also closes the cursor
-        @SuppressLint("Recycle")
-        Cursor cursor = mContext.getContentResolver().query(uri,
-                new String[] { MeetingMemberColumns.MEMBER_ID, MeetingMemberColumns.DURATION, MeetingMemberColumns.TALK_START_TIME },
-                MeetingMemberColumns.TALK_START_TIME + ">0", null, null);
-        if (cursor != null) {
-            // Prepare some update statements to set the duration and reset the
-            // talk_start_time, for these members.
-            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
-            MeetingMemberCursorWrapper cursorWrapper = new MeetingMemberCursorWrapper(cursor);
-            if (cursorWrapper.moveToFirst()) {
-                do {
-                    // Prepare an update operation for one of these members.
-                    Builder builder = ContentProviderOperation.newUpdate(MeetingMemberColumns.CONTENT_URI);
-                    long memberId = cursorWrapper.getMemberId();
-                    // Calculate the total duration the team member talked
-                    // during this meeting.
-                    long duration = cursorWrapper.getDuration();
-                    long talkStartTime = cursorWrapper.getTalkStartTime();
-                    long newDuration = duration + (System.currentTimeMillis() - talkStartTime) / 1000;
-                    builder.withValue(MeetingMemberColumns.DURATION, newDuration);
-                    builder.withValue(MeetingMemberColumns.TALK_START_TIME, 0);
-                    builder.withSelection(MeetingMemberColumns.MEMBER_ID + "=? AND " + MeetingMemberColumns.MEETING_ID + "=?",
-                            new String[] { String.valueOf(memberId), String.valueOf(mId) });
-                    operations.add(builder.build());
-                } while (cursorWrapper.moveToNext());
-            }
-            cursorWrapper.close();
-            try {
-                // Batch update these team members.
-                mContext.getContentResolver().applyBatch(ScrumChatterProvider.AUTHORITY, operations);
-            } catch (Exception e) {
-                Log.v(TAG, "Couldn't close off meeting: " + e.getMessage(), e);
-            }
-        }
+        Bundle extras = new Bundle(2);
+        extras.putLong(ScrumChatterProvider.EXTRA_MEETING_ID, mId);
+        extras.putLong(ScrumChatterProvider.EXTRA_TIME, Clock.getInstance().now());
+        mContext.getContentResolver().call(MeetingMemberColumns.CONTENT_URI, ScrumChatterProvider.METHOD_STOP_TALKING, null, extras);
     }
 
     /**
      * If the team member is talking, stop them. Otherwise, stop all other team members who may be talking, and start this one.
+     * This is done in a single call to the provider.  This is used when the meeting has no {@link LiveMeetingSession}.
      */
     void toggleTalkingMember(final long memberId) {
         Log.v(TAG, "toggleTalkingMember " + memberId);
-
-        // Find out if this member is currently talking:
-        // read its talk_start_time and duration fields.
-        Uri meetingMemberUri = Uri.withAppendedPath(MeetingMemberColumns.CONTENT_URI, String.valueOf(mId));
-        // Closing the cursorWrapper also closes the cursor
-        @SuppressLint("Recycle")
-        Cursor cursor = mContext.getContentResolver().query(meetingMemberUri,
-                new String[] { MeetingMemberColumns.TALK_START_TIME, MeetingMemberColumns.DURATION }, MeetingMemberColumns.MEMBER_ID + "=?",
-                new String[] { String.valueOf(memberId) }, null);
-        long talkStartTime = 0;
-        long duration = 0;
-        if (cursor != null) {
-            MeetingMemberCursorWrapper cursorWrapper = new MeetingMemberCursorWrapper(cursor);
-            if (cursorWrapper.moveToFirst()) {
-                talkStartTime = cursorWrapper.getTalkStartTime();
-                duration = cursorWrapper.getDuration();
-            }
-            cursorWrapper.close();
-        }
-        Log.v(TAG, "Talking member: duration = " + duration + ", talkStartTime = " + talkStartTime);
-        ContentValues values = new ContentValues(2);
-        // The member is currently talking if talkStartTime > 0.
-        if (talkStartTime > 0) {
-            long justTalkedFor = (System.currentTimeMillis() - talkStartTime) / 1000;
-            long newDuration = duration + justTalkedFor;
-            values.put(MeetingMemberColumns.DURATION, newDuration);
-            values.put(MeetingMemberColumns.TALK_START_TIME, 0);
-        } else {
-            // shut up any other talking member before this one starts.
-            shutEverybodyUp();
-            values.put(MeetingMemberColumns.TALK_START_TIME, System.currentTimeMillis());
-        }
-
-        mContext.getContentResolver().update(MeetingMemberColumns.CONTENT_URI, values,
-                MeetingMemberColumns.MEMBER_ID + "=? AND " + MeetingMemberColumns.MEETING_ID + "=?",
-                new String[] { String.valueOf(memberId), String.valueOf(mId) });
+        long startTime = SystemClock.elapsedRealtime();
+        Bundle extras = new Bundle(3);
+        extras.putLong(ScrumChatterProvider.EXTRA_MEETING_ID, mId);
+        extras.putLong(ScrumChatterProvider.EXTRA_MEMBER_ID, memberId);
+        extras.putLong(ScrumChatterProvider.EXTRA_TIME, Clock.getInstance().now());
+        Bundle result = mContext.getContentResolver().call(MeetingMemberColumns.CONTENT_URI, ScrumChatterProvider.METHOD_TOGGLE_TALKING, null, extras);
+        boolean isTalking = result != null && result.getBoolean(ScrumChatterProvider.EXTRA_TALKING);
+        Log.v(TAG, "toggleTalkingMember: member " + memberId + " talking = " + isTalking + " in " + (SystemClock.elapsedRealtime() - startTime) + "ms");
     }
 
     /**
@@ -254,6 +215,7 @@ public class Meeting {
      */
     public void delete() {
         Log.v(TAG, "delete " + this);
+        LiveMeetingSession.discard(mId);
         mContext.getContentResolver().delete(mUri, null, null);
     }
 
@@ -39,6 +39,7 @@ import ca.rmen.android.scrumchatter.R;
 import ca.rmen.android.scrumchatter.databinding.MeetingMemberListItemBinding;
 import ca.rmen.android.scrumchatter.provider.MeetingColumns.State;
 import ca.rmen.android.scrumchatter.provider.MeetingMemberCursorWrapper;
+import ca.rmen.android.scrumchatter.util.Clock;
 import ca.rmen.android.scrumchatter.util.Log;
 import ca.rmen.android.scrumchatter.widget.ScrumChatterCursorAdapter;
 
@@ -52,6 +53,7 @@ public class MeetingCursorAdapter extends ScrumChatterCursorAdapter<MeetingCurso
     private final @ColorInt int mColorChronoActive;
     private final @ColorInt int mColorChronoInactive;
     private final @ColorInt int mColorChronoNotStarted;
+    private LiveMeetingSession mSession;
 
     public interface MemberStartStopListener {
         void toggleTalkingMember(long memberId);
@@ -71,6 +73,13 @@ public class MeetingCursorAdapter extends ScrumChatterCursorAdapter<MeetingCurso
         mColorChronoNotStarted = ContextCompat.getColor(context, R.color.chrono_not_started);
     }
 
+    /**
+     * @param session if not null, the durations and talking members are read from this session instead of the cursor.
+     */
+    void setSession(LiveMeetingSession session) {
+        mSession = session;
+    }
+
     @Override
     public MeetingViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         MeetingMemberListItemBinding binding = DataBindingUtil.inflate(LayoutInflater.from(parent.getContext()), R.layout.meeting_member_list_item, parent, false);
@@ -91,9 +100,14 @@ public class MeetingCursorAdapter extends ScrumChatterCursorAdapter<MeetingCurso
         MeetingMemberItemData meetingMemberItemData = new MeetingMemberItemData();
         meetingMemberItemData.memberId = cursorWrapper.getMemberId();
         meetingMemberItemData.memberName = cursorWrapper.getMemberName();
-        long duration = cursorWrapper.getDuration();
+        long durationMillis = cursorWrapper.getDurationMillis();
         State meetingState = cursorWrapper.getMeetingState();
         Long talkStartTime = cursorWrapper.getTalkStartTime();
+        // The session has changes which may not be in the cursor yet.
+        if (mSession != null && mSession.hasMember(meetingMemberItemData.memberId)) {
+            durationMillis = mSession.getDuration(meetingMemberItemData.memberId);
+            talkStartTime = mSession.getTalkStartTime(meetingMemberItemData.memberId);
+        }
 
         // Find the Views we need to set up
         MeetingMemberListItemBinding binding = holder.binding;
@@ -112,7 +126,7 @@ public class MeetingCursorAdapter extends ScrumChatterCursorAdapter<MeetingCurso
         // If the member is currently talking, show the chronometer.
         // Otherwise, show the duration that they talked (if any).
         if (meetingMemberItemData.isTalking) {
-            long hasBeenTalkingFor = duration * 1000 + (System.currentTimeMillis() - talkStartTime);
+            long hasBeenTalkingFor = durationMillis + Clock.getInstance().since(talkStartTime);
             binding.tvDuration.setBase(SystemClock.elapsedRealtime() - hasBeenTalkingFor);
             // Issue #63: for some reason, if we start the chronometer directly, on some devices it
             // may not appear to update.
@@ -121,8 +135,8 @@ public class MeetingCursorAdapter extends ScrumChatterCursorAdapter<MeetingCurso
             startAnimation(binding.ivChatterFace);
         } else {
             binding.tvDuration.stop();
-            binding.tvDuration.setText(DateUtils.formatElapsedTime(duration));
-            meetingMemberItemData.durationColor = duration > 0 ? mColorChronoInactive : mColorChronoNotStarted;
+            binding.tvDuration.setText(DateUtils.formatElapsedTime(durationMillis / 1000));
+            meetingMemberItemData.durationColor = durationMillis > 0 ? mColorChronoInactive : mColorChronoNotStarted;
             stopAnimation(binding.ivChatterFace);
         }
 
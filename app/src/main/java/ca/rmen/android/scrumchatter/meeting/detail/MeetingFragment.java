@@ -55,7 +55,9 @@ import ca.rmen.android.scrumchatter.provider.MeetingColumns;
 import ca.rmen.android.scrumchatter.provider.MeetingColumns.State;
 import ca.rmen.android.scrumchatter.provider.MeetingMemberColumns;
 import ca.rmen.android.scrumchatter.provider.MemberColumns;
+import ca.rmen.android.scrumchatter.util.Clock;
 import io.reactivex.Completable;
+import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.schedulers.Schedulers;
 
@@ -72,6 +74,7 @@ public class MeetingFragment extends Fragment {
     private long mMeetingId;
     private Meetings mMeetings;
     private MeetingFragmentBinding mBinding;
+    private LiveMeetingSession mSession;
 
     /**
      * @return the {@link MeetingFragment} added to the given {@link FragmentManager}, if any.
@@ -124,10 +127,20 @@ public class MeetingFragment extends Fragment {
         return mBinding.getRoot();
     }
 
+    @Override
+    public void onPause() {
+        Log.v(TAG, "onPause");
+        // Don't wait for the session to write its changes: we may not come back.
+        final LiveMeetingSession session = mSession;
+        if (session != null) Schedulers.io().scheduleDirect(session::flush);
+        super.onPause();
+    }
+
     @Override
     public void onDestroyView() {
         Log.v(TAG, "onDestroyView");
         getActivity().getContentResolver().unregisterContentObserver(mMeetingObserver);
+        if (mSession != null) mSession.setListener(null);
         super.onDestroyView();
     }
 
@@ -231,7 +244,7 @@ public class MeetingFragment extends Fragment {
         // Update the chronometer
         if (meeting.getState() == State.IN_PROGRESS) {
             // If the meeting is in progress, show the Chronometer.
-            long timeSinceMeetingStartedMillis = System.currentTimeMillis() - meeting.getStartDate();
+            long timeSinceMeetingStartedMillis = Clock.getInstance().since(meeting.getStartDate());
             mBinding.tvMeetingDuration.setBase(SystemClock.elapsedRealtime() - timeSinceMeetingStartedMillis);
             mBinding.tvMeetingDuration.start();
         } else if (meeting.getState() == State.FINISHED) {
@@ -239,6 +252,34 @@ public class MeetingFragment extends Fragment {
             mBinding.tvMeetingDuration.stop();
             mBinding.tvMeetingDuration.setText(DateUtils.formatElapsedTime(meeting.getDuration()));
         }
+
+        // The members of a meeting in progress are displayed from its session.
+        if (meeting.getState() == State.IN_PROGRESS && mSession == null) openSession();
+        else if (meeting.getState() == State.FINISHED && mSession != null) setSession(null);
+    }
+
+    /**
+     * Open the session of the meeting in the background.  If the app was killed during the meeting, this recovers
+     * the session from the DB.
+     */
+    private void openSession() {
+        final Context context = getActivity();
+        Single.fromCallable(() -> LiveMeetingSession.open(context, mMeetingId))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(this::setSession,
+                        throwable -> Log.v(TAG, "couldn't open the session for meeting " + mMeetingId, throwable));
+    }
+
+    @MainThread
+    private void setSession(LiveMeetingSession session) {
+        if (session == mSession || getView() == null) return;
+        Log.v(TAG, "setSession " + session);
+        if (mSession != null) mSession.setListener(null);
+        mSession = session;
+        if (mSession != null) mSession.setListener(mSessionListener);
+        mAdapter.setSession(mSession);
+        mAdapter.notifyDataSetChanged();
     }
 
     public long getMeetingId() {
@@ -287,7 +328,7 @@ public class MeetingFragment extends Fragment {
             // For finished meetings, show the member who spoke the most first.
             // For meetings in progress (or not started), sort alphabetically.
             if (meetingState == State.FINISHED) {
-                selection = MeetingMemberColumns.DURATION + ">0";
+                selection = MeetingMemberColumns.SELECTION_TALKED;
                 orderBy = MeetingMemberColumns.DURATION + " DESC";
             }
             String[] projection = new String[] { MeetingMemberColumns._ID, MeetingMemberColumns.MEMBER_ID, MemberColumns.NAME, MeetingMemberColumns.DURATION, MeetingColumns.STATE,
@@ -355,13 +396,29 @@ public class MeetingFragment extends Fragment {
          */
         public void toggleTalkingMember(final long memberId) {
             Log.v(TAG, "toggleTalkingMember " + memberId);
-            Schedulers.io().scheduleDirect(() -> {
+            if (mSession != null && mSession.toggleTalkingMember(memberId)) return;
+            final Context context = getActivity();
+            Single.fromCallable(() -> {
                 if (mMeeting.getState() != State.IN_PROGRESS) mMeeting.start();
-                mMeeting.toggleTalkingMember(memberId);
-            });
+                LiveMeetingSession session = LiveMeetingSession.open(context, mMeetingId);
+                if (!session.toggleTalkingMember(memberId)) mMeeting.toggleTalkingMember(memberId);
+                return session;
+            }).subscribeOn(Schedulers.io())
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(MeetingFragment.this::setSession,
+                            throwable -> Log.v(TAG, "couldn't toggle member " + memberId, throwable));
         }
     };
 
+    /**
+     * Show the changes of the session as soon as they are made, without waiting for them to be written to the DB.
+     */
+    private final LiveMeetingSession.SessionListener mSessionListener = () -> {
+        // The session was closed or discarded: display the members from the DB again.
+        if (mSession != null && mSession.isClosed()) setSession(null);
+        else if (mAdapter != null) mAdapter.notifyDataSetChanged();
+    };
+
     // Used from xml for data binding
     @SuppressWarnings("WeakerAccess")
     public class MeetingStopListener {
@@ -66,8 +66,8 @@ class MeetingPagerAdapter extends FragmentStatePagerAdapter {
             int teamId = Prefs.getInstance(activity).getTeamId();
             // Closing the cursor wrapper also closes the cursor
             @SuppressLint("Recycle")
-            Cursor cursor = activity.getContentResolver().query(MeetingColumns.CONTENT_URI, null, MeetingColumns.TEAM_ID + "=?",
-                    new String[] { String.valueOf(teamId) }, MeetingColumns.MEETING_DATE + " DESC");
+            Cursor cursor = activity.getContentResolver().query(MeetingColumns.getTeamContentUri(teamId), null, null,
+                    null, MeetingColumns.MEETING_DATE + " DESC");
             MeetingCursorWrapper meetingCursorWrapper = new MeetingCursorWrapper(cursor);
             meetingCursorWrapper.getCount();
             return new MeetingPagerAdapter(activity, teamId, meetingCursorWrapper);
@@ -146,8 +146,8 @@ class MeetingPagerAdapter extends FragmentStatePagerAdapter {
         private MeetingCursorWrapper read(int teamId) {
             // Closing the cursorWrapper also closes the cursor
             @SuppressLint("Recycle")
-            Cursor cursor = mContext.getContentResolver().query(MeetingColumns.CONTENT_URI, null, MeetingColumns.TEAM_ID + "=?",
-                    new String[] { String.valueOf(teamId) }, MeetingColumns.MEETING_DATE + " DESC");
+            Cursor cursor = mContext.getContentResolver().query(MeetingColumns.getTeamContentUri(teamId), null, null,
+                    null, MeetingColumns.MEETING_DATE + " DESC");
             MeetingCursorWrapper cursorWrapper = new MeetingCursorWrapper(cursor);
             cursorWrapper.getCount();
             return cursorWrapper;
@@ -35,12 +35,12 @@ import ca.rmen.android.scrumchatter.meeting.detail.Meeting;
 import ca.rmen.android.scrumchatter.provider.MeetingColumns.State;
 import ca.rmen.android.scrumchatter.provider.MeetingCursorWrapper;
 import ca.rmen.android.scrumchatter.util.TextUtils;
-import ca.rmen.android.scrumchatter.widget.ScrumChatterCursorAdapter;
+import ca.rmen.android.scrumchatter.widget.ScrumChatterPagedCursorAdapter;
 
 /**
- * Adapter for the list of meetings.
+ * Adapter for the list of meetings.  The meetings are read one page at a time.
  */
-public class MeetingsCursorAdapter extends ScrumChatterCursorAdapter<MeetingsCursorAdapter.MeetingViewHolder> {
+public class MeetingsCursorAdapter extends ScrumChatterPagedCursorAdapter<MeetingsCursorAdapter.MeetingViewHolder> {
     private final MeetingListener mMeetingListener;
     private final int mColorStateInProgress;
     private final int mColorStateDefault;
@@ -48,7 +48,8 @@ public class MeetingsCursorAdapter extends ScrumChatterCursorAdapter<MeetingsCur
     private int mSelectedPosition = -1;
     private final Context mContext;
 
-    MeetingsCursorAdapter(Context context, MeetingListener meetingListener) {
+    MeetingsCursorAdapter(Context context, MeetingListener meetingListener, PageLoader pageLoader, int pageSize) {
+        super(pageLoader, pageSize);
         mContext = context.getApplicationContext();
         mMeetingListener = meetingListener;
         mColorStateInProgress = ContextCompat.getColor(context, R.color.meeting_state_in_progress);
@@ -25,6 +25,7 @@ import android.database.Cursor;
 import android.databinding.DataBindingUtil;
 import android.os.Bundle;
 import android.os.Handler;
+import android.provider.BaseColumns;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
@@ -35,6 +36,8 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import java.util.concurrent.Callable;
+
 import ca.rmen.android.scrumchatter.Constants;
 import ca.rmen.android.scrumchatter.R;
 import ca.rmen.android.scrumchatter.databinding.MeetingsBinding;
@@ -46,6 +49,7 @@ import ca.rmen.android.scrumchatter.meeting.detail.MeetingFragment;
 import ca.rmen.android.scrumchatter.provider.MeetingColumns;
 import ca.rmen.android.scrumchatter.settings.Prefs;
 import ca.rmen.android.scrumchatter.util.Log;
+import ca.rmen.android.scrumchatter.widget.ScrumChatterPagedCursorAdapter;
 
 /**
  * Displays the list of meetings that have taken place.
@@ -53,11 +57,15 @@ import ca.rmen.android.scrumchatter.util.Log;
 public class MeetingsListFragment extends Fragment {
     private static final String TAG = Constants.TAG + "/" + MeetingsListFragment.class.getSimpleName();
     private static final int URL_LOADER = 0;
+    // The number of meetings read at a time.
+    private static final int PAGE_SIZE = 50;
 
     private MeetingsCursorAdapter mAdapter;
     private Prefs mPrefs;
     private Meetings mMeetings;
     private int mTeamId;
+    // The number of meetings the loader reads: the first page, plus all the pages read as the list was scrolled.
+    private int mLoadedCount = PAGE_SIZE;
     private MeetingsBinding mBinding;
 
     public MeetingsListFragment() {
@@ -98,17 +106,15 @@ public class MeetingsListFragment extends Fragment {
         @Override
         public Loader<Cursor> onCreateLoader(int loaderId, Bundle bundle) {
             Log.v(TAG, "onCreateLoader, loaderId = " + loaderId + ", bundle = " + bundle);
-            String selection = MeetingColumns.TEAM_ID + "=?";
-            String[] selectionArgs = new String[]{String.valueOf(mTeamId)};
-            return new CursorLoader(getActivity(), MeetingColumns.CONTENT_URI, null, selection, selectionArgs, MeetingColumns.MEETING_DATE
-                    + " DESC");
+            return new CursorLoader(getActivity(), MeetingColumns.getTeamContentUri(mTeamId, mLoadedCount), null, null, null,
+                    MeetingColumns.PAGE_ORDER);
         }
 
         @Override
         public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
             Log.v(TAG, "onLoadFinished, loader = " + loader + ", cursor = " + cursor);
             if (mAdapter == null) {
-                mAdapter = new MeetingsCursorAdapter(getActivity(), mMeetingListener);
+                mAdapter = new MeetingsCursorAdapter(getActivity(), mMeetingListener, mPageLoader, PAGE_SIZE);
                 mBinding.meetingList.recyclerViewContent.recyclerView.setAdapter(mAdapter);
             }
             mBinding.meetingList.recyclerViewContent.progressContainer.setVisibility(View.GONE);
@@ -186,11 +192,39 @@ public class MeetingsListFragment extends Fragment {
 
     };
 
+    private final ScrumChatterPagedCursorAdapter.PageLoader mPageLoader = new ScrumChatterPagedCursorAdapter.PageLoader() {
+        @Override
+        public Callable<Cursor> getPageAfter(Cursor lastRow) {
+            final Context context = getActivity().getApplicationContext();
+            final int teamId = mTeamId;
+            String meetingDate = String.valueOf(lastRow.getLong(lastRow.getColumnIndex(MeetingColumns.MEETING_DATE)));
+            String meetingId = String.valueOf(lastRow.getLong(lastRow.getColumnIndex(BaseColumns._ID)));
+            final String[] selectionArgs = new String[]{meetingDate, meetingDate, meetingId};
+            return () -> {
+                Cursor cursor = context.getContentResolver().query(MeetingColumns.getTeamContentUri(teamId, PAGE_SIZE), null,
+                        MeetingColumns.PAGE_AFTER_SELECTION, selectionArgs, MeetingColumns.PAGE_ORDER);
+                if (cursor == null) throw new IllegalStateException("Couldn't read the meetings after meeting " + selectionArgs[2]);
+                // Fill the cursor window here, in the background.
+                cursor.getCount();
+                return cursor;
+            };
+        }
+
+        @Override
+        public void onPageLoaded(int itemCount) {
+            // When the meetings change, reload all the meetings which have been read so far, so the list doesn't shrink.
+            mLoadedCount = itemCount;
+            Loader<Cursor> loader = getLoaderManager().getLoader(URL_LOADER);
+            if (loader != null) ((CursorLoader) loader).setUri(MeetingColumns.getTeamContentUri(mTeamId, mLoadedCount));
+        }
+    };
+
     private final OnSharedPreferenceChangeListener mPrefsListener = new OnSharedPreferenceChangeListener() {
 
         @Override
         public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
             mTeamId = sharedPreferences.getInt(Constants.PREF_TEAM_ID, Constants.DEFAULT_TEAM_ID);
+            mLoadedCount = PAGE_SIZE;
             getLoaderManager().restartLoader(URL_LOADER, null, mLoaderCallbacks);
         }
     };
@@ -0,0 +1,588 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+import android.support.annotation.WorkerThread;
+import android.text.TextUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.settings.Prefs;
+import ca.rmen.android.scrumchatter.util.IOUtils;
+import ca.rmen.android.scrumchatter.util.Log;
+
+/**
+ * Writes and replays incremental backups.
+ *
+ * A backup file is a sequence of segments, each one compressed on its own.  The first segment (the base) has all the data.
+ * Each following segment (a delta) only has what may have changed since the previous segment: all the teams and members,
+ * which are few, and the meetings after the high-water mark of the previous segment, with their meeting_member rows.
+ * The high-water mark is the highest meeting id below which all the meetings are finished, and so won't change anymore.
+ * If meetings below the mark were deleted, the delta also lists the ids of the remaining ones.
+ *
+ * A new export only appends a delta to the previous backup file.  A new base is written once the deltas take more space
+ * than the base.
+ */
+public class DBBackup {
+    private static final String TAG = Constants.TAG + "/" + DBBackup.class.getSimpleName();
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    // Each segment starts with this magic number and the length of its compressed data.
+    private static final int SEGMENT_MAGIC = 0x5343424b; // "SCBK"
+    private static final int SEGMENT_HEADER_SIZE = 4 + 8;
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final String EXTRA_BASE = "base";
+    static final String EXTRA_MARK = "mark";
+    static final String EXTRA_MEETING_COUNT = "meeting_count";
+    static final String EXTRA_DATABASE_VERSION = "database_version";
+    static final String EXTRA_ROW_COUNT = "row_count";
+
+    // The records of a segment.
+    private static final byte RECORD_TABLE = 1;
+    private static final byte RECORD_KEEP = 2;
+    private static final byte RECORD_ROW = 3;
+    private static final byte RECORD_END_TABLE = 4;
+    private static final byte RECORD_END_SEGMENT = 5;
+
+    // How the rows of a table in a segment replace the rows of the database.
+    // The segment has all the rows of the table: the rows are updated or inserted, and the other rows are deleted.
+    private static final byte MODE_ALL = 1;
+    // The segment has all the rows after the previous mark: those rows are deleted and inserted again.
+    private static final byte MODE_AFTER_MARK = 2;
+    // The segment has the children of the rows which were inserted again: the rows are inserted.
+    private static final byte MODE_APPEND = 3;
+
+    private static final String SQL_SELECT_MARK = "SELECT IFNULL(MIN(" + MeetingColumns._ID + ") - 1,"
+            + " (SELECT IFNULL(MAX(" + MeetingColumns._ID + "), 0) FROM " + MeetingColumns.TABLE_NAME + "))"
+            + " FROM " + MeetingColumns.TABLE_NAME
+            + " WHERE " + MeetingColumns.STATE + " != " + MeetingColumns.State.FINISHED.ordinal();
+
+    private static final String SQL_COUNT_MEETINGS_UNTIL = "SELECT COUNT(*) FROM " + MeetingColumns.TABLE_NAME
+            + " WHERE " + MeetingColumns._ID + " <= ?";
+
+    private DBBackup() {
+        // prevent instantiation
+    }
+
+    /**
+     * Append the changes since the last backup to the given backup file.  If we can't append to this file, replace it
+     * with a new base.
+     *
+     * @return true if the backup file is up to date.
+     */
+    @WorkerThread
+    public static boolean write(Context context, File file) {
+        Prefs prefs = Prefs.getInstance(context);
+        long length = prefs.getBackupLength();
+        long baseLength = prefs.getBackupBaseLength();
+        Bundle previous = null;
+        // Only append to the file we wrote last time, and only while its deltas are smaller than its base.
+        if (length > 0 && file.length() == length && length - baseLength <= baseLength) {
+            previous = new Bundle(3);
+            previous.putLong(EXTRA_MARK, prefs.getBackupMark());
+            previous.putInt(EXTRA_MEETING_COUNT, prefs.getBackupMeetingCount());
+            previous.putInt(EXTRA_DATABASE_VERSION, prefs.getBackupDatabaseVersion());
+        }
+        File segmentFile = new File(file.getParentFile(), file.getName() + SEGMENT_SUFFIX);
+        long startTime = SystemClock.elapsedRealtime();
+        try {
+            Bundle result = writeSegment(context.getDatabasePath(ScrumChatterDatabase.DATABASE_NAME), segmentFile, previous);
+            boolean isBase = result.getBoolean(EXTRA_BASE);
+            long segmentLength = segmentFile.length();
+            if (isBase) {
+                if (!IOUtils.copy(segmentFile, file)) return false;
+                baseLength = segmentLength;
+            } else {
+                if (!IOUtils.append(segmentFile, file)) return false;
+            }
+            prefs.setBackupState(file.length(), baseLength, result.getLong(EXTRA_MARK), result.getInt(EXTRA_MEETING_COUNT),
+                    result.getInt(EXTRA_DATABASE_VERSION));
+            long duration = SystemClock.elapsedRealtime() - startTime;
+            Log.v(TAG, "Wrote a " + (isBase ? "base" : "delta") + " of " + result.getInt(EXTRA_ROW_COUNT) + " rows and "
+                    + segmentLength + " bytes in " + duration + "ms: " + file + " is now " + file.length() + " bytes");
+            return true;
+        } catch (SQLException | IOException e) {
+            Log.v(TAG, "Couldn't write the backup " + file + ": " + e.getMessage(), e);
+            return false;
+        } finally {
+            if (segmentFile.exists() && !segmentFile.delete()) Log.v(TAG, "Couldn't delete " + segmentFile);
+        }
+    }
+
+    /**
+     * @return true if the given file is a backup written by {@link #write(Context, File)}, and not a database file.
+     */
+    static boolean isBackup(File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            return in.readInt() == SEGMENT_MAGIC;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.v(TAG, "Couldn't close " + file + ": " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write one segment of the given database to the given file, on a separate read-only connection, in a read
+     * transaction.  With write-ahead logging, the transaction sees the database as it was when it started, and the
+     * provider can keep writing while the segment is compressed and written.
+     */
+    private static Bundle writeSegment(File dbFile, File segmentFile, Bundle previous) throws IOException {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            // As in DBSnapshot: a savepoint starts a deferred transaction, which doesn't take the write lock.
+            db.execSQL("SAVEPOINT backup");
+            try {
+                return writeSegment(db, segmentFile, previous);
+            } finally {
+                db.execSQL("RELEASE backup");
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Write one segment to the given file.  This must be called inside a transaction, so the rows of all the tables are
+     * consistent.
+     *
+     * @param previous the mark, meeting count and database version of the previous segment, or null to write a base.
+     * @return whether a base was written, and the mark, meeting count and database version to give for the next segment.
+     */
+    private static Bundle writeSegment(SQLiteDatabase db, File segmentFile, Bundle previous) throws IOException {
+        int databaseVersion = db.getVersion();
+        // After a database upgrade, the older meetings may have changed: start again with a base.
+        boolean isBase = previous == null || previous.getInt(EXTRA_DATABASE_VERSION) != databaseVersion;
+        long previousMark = isBase ? 0 : previous.getLong(EXTRA_MARK);
+        int previousMeetingCount = isBase ? 0 : previous.getInt(EXTRA_MEETING_COUNT);
+        long mark = Math.max(previousMark, DatabaseUtils.longForQuery(db, SQL_SELECT_MARK, null));
+        int meetingCount = countMeetingsUntil(db, mark);
+        boolean meetingsDeleted = countMeetingsUntil(db, previousMark) < previousMeetingCount;
+        String[] previousMarkArgs = new String[]{String.valueOf(previousMark)};
+
+        int rowCount = 0;
+        FileOutputStream os = new FileOutputStream(segmentFile);
+        DataOutputStream out = null;
+        try {
+            // The length of the compressed data is written once we know it.
+            os.write(ByteBuffer.allocate(SEGMENT_HEADER_SIZE).putInt(SEGMENT_MAGIC).putLong(0).array());
+            DeflaterOutputStream deflaterStream = new DeflaterOutputStream(os);
+            out = new DataOutputStream(new BufferedOutputStream(deflaterStream, BUFFER_SIZE));
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(databaseVersion);
+            out.writeLong(previousMark);
+            out.writeLong(mark);
+            // Parents before children.
+            rowCount += writeTable(out, db, TeamColumns.TABLE_NAME, MODE_ALL, null, null, null);
+            rowCount += writeTable(out, db, MemberColumns.TABLE_NAME, MODE_ALL, null, null, null);
+            rowCount += writeTable(out, db, MeetingColumns.TABLE_NAME, MODE_AFTER_MARK, MeetingColumns._ID + " > ?", previousMarkArgs,
+                    meetingsDeleted ? MeetingColumns._ID + " <= ?" : null);
+            // The speaking events before the meeting_member rows: see DBImport.TABLES.
+            rowCount += writeTable(out, db, SpeakingEventColumns.TABLE_NAME, MODE_APPEND, SpeakingEventColumns.MEETING_ID + " > ?",
+                    previousMarkArgs, null);
+            rowCount += writeTable(out, db, MeetingMemberColumns.TABLE_NAME, MODE_APPEND, MeetingMemberColumns.MEETING_ID + " > ?",
+                    previousMarkArgs, null);
+            out.writeByte(RECORD_END_SEGMENT);
+            out.flush();
+            deflaterStream.finish();
+            long compressedLength = os.getChannel().position() - SEGMENT_HEADER_SIZE;
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(8).putLong(compressedLength);
+            lengthBuffer.flip();
+            os.getChannel().write(lengthBuffer, 4);
+        } finally {
+            if (out != null) out.close();
+            else os.close();
+        }
+        Log.v(TAG, "writeSegment: " + (isBase ? "base" : "delta") + " from mark " + previousMark + " to " + mark + ", "
+                + rowCount + " rows" + (meetingsDeleted ? ", with deleted meetings" : ""));
+        Bundle result = new Bundle(5);
+        result.putBoolean(EXTRA_BASE, isBase);
+        result.putLong(EXTRA_MARK, mark);
+        result.putInt(EXTRA_MEETING_COUNT, meetingCount);
+        result.putInt(EXTRA_DATABASE_VERSION, databaseVersion);
+        result.putInt(EXTRA_ROW_COUNT, rowCount);
+        return result;
+    }
+
+    private static int countMeetingsUntil(SQLiteDatabase db, long meetingId) {
+        return (int) DatabaseUtils.longForQuery(db, SQL_COUNT_MEETINGS_UNTIL, new String[]{String.valueOf(meetingId)});
+    }
+
+    /**
+     * @param keepSelection if not null, the ids of the rows matching this selection are written before the rows, so the
+     *                      rows which aren't in the segment and were deleted since the previous segment can be deleted.
+     * @return the number of rows written.
+     */
+    private static int writeTable(DataOutputStream out, SQLiteDatabase db, String table, byte mode, String selection,
+                                  String[] selectionArgs, String keepSelection) throws IOException {
+        out.writeByte(RECORD_TABLE);
+        out.writeByte(mode);
+        writeString(out, table);
+        int rowCount = 0;
+        Cursor c = db.query(table, null, selection, selectionArgs, null, null, null);
+        try {
+            String[] columns = c.getColumnNames();
+            out.writeInt(columns.length);
+            for (String column : columns) writeString(out, column);
+            if (keepSelection != null) writeKeptIds(out, db, table, keepSelection, selectionArgs);
+            while (c.moveToNext()) {
+                out.writeByte(RECORD_ROW);
+                for (int i = 0; i < columns.length; i++) writeValue(out, c, i);
+                rowCount++;
+            }
+        } finally {
+            c.close();
+        }
+        out.writeByte(RECORD_END_TABLE);
+        return rowCount;
+    }
+
+    private static void writeKeptIds(DataOutputStream out, SQLiteDatabase db, String table, String selection, String[] selectionArgs)
+            throws IOException {
+        Cursor c = db.query(table, new String[]{BaseColumns._ID}, selection, selectionArgs, null, null, null);
+        try {
+            out.writeByte(RECORD_KEEP);
+            out.writeInt(c.getCount());
+            while (c.moveToNext()) out.writeLong(c.getLong(0));
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Apply all the segments of the given backup file to the given database.  This must be called inside a transaction,
+     * on an empty database.
+     *
+     * @return the number of rows read.
+     * @throws IllegalArgumentException if the file comes from a newer version of the app.
+     */
+    static int replay(SQLiteDatabase db, File backupFile) throws IOException {
+        long fileLength = backupFile.length();
+        long position = 0;
+        int rowCount = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(backupFile), BUFFER_SIZE));
+        try {
+            while (position < fileLength) {
+                if (in.readInt() != SEGMENT_MAGIC) throw new IOException("No segment at " + position + " in " + backupFile);
+                long compressedLength = in.readLong();
+                SegmentInputStream segmentStream = new SegmentInputStream(in, compressedLength);
+                InflaterInputStream inflaterStream = new InflaterInputStream(segmentStream);
+                try {
+                    rowCount += replaySegment(db, new DataInputStream(new BufferedInputStream(inflaterStream, BUFFER_SIZE)));
+                } finally {
+                    inflaterStream.close();
+                }
+                segmentStream.skipRemaining();
+                position += SEGMENT_HEADER_SIZE + compressedLength;
+            }
+        } finally {
+            in.close();
+        }
+        return rowCount;
+    }
+
+    private static int replaySegment(SQLiteDatabase db, DataInputStream in) throws IOException {
+        int formatVersion = in.readInt();
+        int databaseVersion = in.readInt();
+        if (formatVersion > FORMAT_VERSION || databaseVersion > ScrumChatterDatabase.DATABASE_VERSION) {
+            throw new IllegalArgumentException("Can't replay a segment with format " + formatVersion + " and version " + databaseVersion);
+        }
+        long previousMark = in.readLong();
+        long mark = in.readLong();
+        int rowCount = 0;
+        byte record;
+        while ((record = in.readByte()) == RECORD_TABLE) {
+            rowCount += replayTable(db, in, databaseVersion, previousMark);
+        }
+        if (record != RECORD_END_SEGMENT) throw new IOException("Unexpected record " + record);
+        Log.v(TAG, "replaySegment: from mark " + previousMark + " to " + mark + ", " + rowCount + " rows");
+        return rowCount;
+    }
+
+    private static int replayTable(SQLiteDatabase db, DataInputStream in, int databaseVersion, long previousMark) throws IOException {
+        byte mode = in.readByte();
+        String table = readString(in);
+        if (!Arrays.asList(DBImport.TABLES).contains(table)) throw new IOException("Unknown table " + table);
+        String[] previousMarkArgs = new String[]{String.valueOf(previousMark)};
+        if (mode == MODE_AFTER_MARK) db.delete(table, BaseColumns._ID + " > ?", previousMarkArgs);
+
+        // Only the columns which are in both the segment and our table are written.
+        String[] columns = new String[in.readInt()];
+        for (int i = 0; i < columns.length; i++) columns[i] = readString(in);
+        List<String> ourColumns = DBImport.getColumns(db, table);
+        List<Integer> insertIndexes = new ArrayList<>();
+        List<Integer> updateIndexes = new ArrayList<>();
+        int idIndex = -1;
+        // Segments written before the durations were in milliseconds have durations in seconds.
+        int secondsDurationIndex = -1;
+        for (int i = 0; i < columns.length; i++) {
+            if (!ourColumns.contains(columns[i])) continue;
+            if (databaseVersion < ScrumChatterDatabase.VERSION_DURATION_MILLIS
+                    && MeetingMemberColumns.TABLE_NAME.equals(table) && MeetingMemberColumns.DURATION.equals(columns[i])) {
+                secondsDurationIndex = i;
+            }
+            insertIndexes.add(i);
+            if (BaseColumns._ID.equals(columns[i])) idIndex = i;
+            else updateIndexes.add(i);
+        }
+        if (mode == MODE_ALL && idIndex < 0) throw new IOException("No " + BaseColumns._ID + " column in " + table);
+
+        List<String> insertColumns = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        for (int i : insertIndexes) {
+            insertColumns.add(columns[i]);
+            placeholders.add("?");
+        }
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + table + " (" + TextUtils.join(", ", insertColumns) + ")"
+                + " VALUES (" + TextUtils.join(", ", placeholders) + ")");
+        SQLiteStatement update = null;
+        if (mode == MODE_ALL && !updateIndexes.isEmpty()) {
+            List<String> assignments = new ArrayList<>();
+            for (int i : updateIndexes) assignments.add(columns[i] + " = ?");
+            update = db.compileStatement("UPDATE " + table + " SET " + TextUtils.join(", ", assignments)
+                    + " WHERE " + BaseColumns._ID + " = ?");
+        }
+
+        int rowCount = 0;
+        Set<Long> ids = new HashSet<>();
+        Object[] values = new Object[columns.length];
+        byte record;
+        try {
+            while ((record = in.readByte()) != RECORD_END_TABLE) {
+                if (record == RECORD_KEEP) {
+                    int count = in.readInt();
+                    Set<Long> keptIds = new HashSet<>(count);
+                    for (int i = 0; i < count; i++) keptIds.add(in.readLong());
+                    deleteOthers(db, table, BaseColumns._ID + " <= ?", previousMarkArgs, keptIds);
+                    continue;
+                }
+                if (record != RECORD_ROW) throw new IOException("Unexpected record " + record + " in " + table);
+                for (int i = 0; i < values.length; i++) values[i] = readValue(in);
+                if (secondsDurationIndex >= 0 && values[secondsDurationIndex] instanceof Long) {
+                    values[secondsDurationIndex] = (Long) values[secondsDurationIndex] * 1000;
+                }
+                // Rows replaced in full: update the row if we have it, otherwise insert it.
+                boolean updated = false;
+                if (mode == MODE_ALL) {
+                    ids.add((Long) values[idIndex]);
+                    if (update != null) {
+                        for (int i = 0; i < updateIndexes.size(); i++) {
+                            DatabaseUtils.bindObjectToProgram(update, i + 1, values[updateIndexes.get(i)]);
+                        }
+                        DatabaseUtils.bindObjectToProgram(update, updateIndexes.size() + 1, values[idIndex]);
+                        updated = update.executeUpdateDelete() > 0;
+                    }
+                }
+                if (!updated) {
+                    for (int i = 0; i < insertIndexes.size(); i++) {
+                        DatabaseUtils.bindObjectToProgram(insert, i + 1, values[insertIndexes.get(i)]);
+                    }
+                    insert.executeInsert();
+                }
+                rowCount++;
+            }
+        } finally {
+            insert.close();
+            if (update != null) update.close();
+        }
+        if (mode == MODE_ALL) deleteOthers(db, table, null, null, ids);
+        return rowCount;
+    }
+
+    /**
+     * Delete the rows matching the given selection, except the ones with the given ids.
+     */
+    private static void deleteOthers(SQLiteDatabase db, String table, String selection, String[] selectionArgs, Set<Long> keptIds) {
+        List<Long> deletedIds = new ArrayList<>();
+        Cursor c = db.query(table, new String[]{BaseColumns._ID}, selection, selectionArgs, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                if (!keptIds.contains(c.getLong(0))) deletedIds.add(c.getLong(0));
+            }
+        } finally {
+            c.close();
+        }
+        if (deletedIds.isEmpty()) return;
+        Log.v(TAG, "deleteOthers: deleting " + deletedIds.size() + " rows from " + table);
+        SQLiteStatement delete = db.compileStatement("DELETE FROM " + table + " WHERE " + BaseColumns._ID + " = ?");
+        try {
+            for (long id : deletedIds) {
+                delete.bindLong(1, id);
+                delete.executeUpdateDelete();
+            }
+        } finally {
+            delete.close();
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Cursor c, int column) throws IOException {
+        int type = c.getType(column);
+        out.writeByte(type);
+        switch (type) {
+            case Cursor.FIELD_TYPE_NULL:
+                break;
+            case Cursor.FIELD_TYPE_INTEGER:
+                out.writeLong(c.getLong(column));
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                out.writeDouble(c.getDouble(column));
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                byte[] blob = c.getBlob(column);
+                out.writeInt(blob.length);
+                out.write(blob);
+                break;
+            default:
+                writeString(out, c.getString(column));
+                break;
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return in.readLong();
+            case Cursor.FIELD_TYPE_FLOAT:
+                return in.readDouble();
+            case Cursor.FIELD_TYPE_BLOB:
+                byte[] blob = new byte[in.readInt()];
+                in.readFully(blob);
+                return blob;
+            case Cursor.FIELD_TYPE_STRING:
+                return readString(in);
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Reads the compressed data of one segment, without reading past its end or closing the file.
+     */
+    private static class SegmentInputStream extends FilterInputStream {
+        private long mRemaining;
+
+        SegmentInputStream(InputStream in, long length) {
+            super(in);
+            mRemaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mRemaining <= 0) return -1;
+            int b = in.read();
+            if (b != -1) mRemaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mRemaining <= 0) return -1;
+            int count = in.read(buffer, offset, (int) Math.min(length, mRemaining));
+            if (count > 0) mRemaining -= count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, mRemaining));
+            mRemaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), mRemaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // The file is closed once all the segments are read.
+        }
+
+        /**
+         * Move the file to the next segment.
+         */
+        void skipRemaining() throws IOException {
+            while (mRemaining > 0) {
+                if (skip(mRemaining) == 0 && read() == -1) throw new EOFException("Truncated segment");
+            }
+        }
+    }
+}
@@ -20,18 +20,21 @@ package ca.rmen.android.scrumchatter.provider;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.List;
 
-import android.content.ContentProviderOperation;
-import android.content.ContentProviderOperation.Builder;
 import android.content.Context;
-import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
-import android.os.RemoteException;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
 
 import ca.rmen.android.scrumchatter.settings.Prefs;
 import ca.rmen.android.scrumchatter.util.Log;
@@ -41,16 +44,154 @@ import ca.rmen.android.scrumchatter.util.IOUtils;
 public class DBImport {
     private static final String TAG = Constants.TAG + "/" + DBImport.class.getSimpleName();
 
-    public static void importDB(Context context, Uri uri) throws RemoteException, OperationApplicationException, FileNotFoundException {
+    // The tables to copy, parents before children.  The speaking events are copied before the meeting_member rows,
+    // so their trigger doesn't add them again to the durations of these rows.
+    static final String[] TABLES = {TeamColumns.TABLE_NAME, MemberColumns.TABLE_NAME, MeetingColumns.TABLE_NAME,
+            SpeakingEventColumns.TABLE_NAME, MeetingMemberColumns.TABLE_NAME};
+
+    // The first version with teams.  We can't merge older files, because we match the rows by team.
+    private static final int MIN_MERGE_VERSION = 2;
+
+    static final String EXTRA_ROWS_WRITTEN = "rows_written";
+    static final String EXTRA_ROWS_SKIPPED = "rows_skipped";
+
+    // For a merge, the rows of the file are first copied into temporary tables with this prefix.
+    private static final String STAGING_PREFIX = "import_";
+    private static final String STAGING_TEAM = STAGING_PREFIX + TeamColumns.TABLE_NAME;
+    private static final String STAGING_MEMBER = STAGING_PREFIX + MemberColumns.TABLE_NAME;
+    private static final String STAGING_MEETING = STAGING_PREFIX + MeetingColumns.TABLE_NAME;
+    private static final String STAGING_MEETING_MEMBER = STAGING_PREFIX + MeetingMemberColumns.TABLE_NAME;
+    private static final String STAGING_SPEAKING_EVENT = STAGING_PREFIX + SpeakingEventColumns.TABLE_NAME;
+    // The id of the matching row in our table, in the staging tables of teams, members and meetings.
+    private static final String NEW_ID = "new_id";
+
+    // Teams are matched by name.
+    private static final String SQL_INSERT_MISSING_TEAMS = "INSERT INTO " + TeamColumns.TABLE_NAME + " (" + TeamColumns.TEAM_NAME + ")"
+            + " SELECT DISTINCT " + TeamColumns.TEAM_NAME + " FROM " + STAGING_TEAM + " i"
+            + " WHERE NOT EXISTS (SELECT 1 FROM " + TeamColumns.TABLE_NAME + " t WHERE t." + TeamColumns.TEAM_NAME + " IS i." + TeamColumns.TEAM_NAME + ")";
+
+    private static final String SQL_MAP_TEAMS = "UPDATE " + STAGING_TEAM + " SET " + NEW_ID + " ="
+            + " (SELECT MIN(" + TeamColumns._ID + ") FROM " + TeamColumns.TABLE_NAME + " t"
+            + " WHERE t." + TeamColumns.TEAM_NAME + " IS " + STAGING_TEAM + "." + TeamColumns.TEAM_NAME + ")";
+
+    private static final String SQL_MAP_MEMBER_TEAMS = "UPDATE " + STAGING_MEMBER + " SET " + MemberColumns.TEAM_ID + " ="
+            + " (SELECT " + NEW_ID + " FROM " + STAGING_TEAM + " t WHERE t." + TeamColumns._ID + " = " + STAGING_MEMBER + "." + MemberColumns.TEAM_ID + ")";
+
+    // Members are matched by team and name.
+    private static final String SQL_INSERT_MISSING_MEMBERS = "INSERT INTO " + MemberColumns.TABLE_NAME
+            + " (" + MemberColumns.NAME + ", " + MemberColumns.TEAM_ID + ", " + MemberColumns.DELETED + ")"
+            + " SELECT " + MemberColumns.NAME + ", " + MemberColumns.TEAM_ID + ", IFNULL(MIN(" + MemberColumns.DELETED + "), 0)"
+            + " FROM " + STAGING_MEMBER + " i"
+            + " WHERE " + MemberColumns.TEAM_ID + " IS NOT NULL"
+            + " AND NOT EXISTS (SELECT 1 FROM " + MemberColumns.TABLE_NAME + " m"
+            + " WHERE m." + MemberColumns.TEAM_ID + " = i." + MemberColumns.TEAM_ID + " AND m." + MemberColumns.NAME + " IS i." + MemberColumns.NAME + ")"
+            + " GROUP BY " + MemberColumns.TEAM_ID + ", " + MemberColumns.NAME;
+
+    private static final String SQL_MAP_MEMBERS = "UPDATE " + STAGING_MEMBER + " SET " + NEW_ID + " ="
+            + " (SELECT MIN(" + MemberColumns._ID + ") FROM " + MemberColumns.TABLE_NAME + " m"
+            + " WHERE m." + MemberColumns.TEAM_ID + " = " + STAGING_MEMBER + "." + MemberColumns.TEAM_ID
+            + " AND m." + MemberColumns.NAME + " IS " + STAGING_MEMBER + "." + MemberColumns.NAME + ")";
+
+    private static final String SQL_MAP_MEETING_TEAMS = "UPDATE " + STAGING_MEETING + " SET " + MeetingColumns.TEAM_ID + " ="
+            + " (SELECT " + NEW_ID + " FROM " + STAGING_TEAM + " t WHERE t." + TeamColumns._ID + " = " + STAGING_MEETING + "." + MeetingColumns.TEAM_ID + ")";
+
+    // Meetings are matched by team and date.
+    private static final String SQL_INSERT_MISSING_MEETINGS = "INSERT INTO " + MeetingColumns.TABLE_NAME
+            + " (" + MeetingColumns.MEETING_DATE + ", " + MeetingColumns.TOTAL_DURATION + ", " + MeetingColumns.STATE + ", " + MeetingColumns.TEAM_ID + ")"
+            + " SELECT " + MeetingColumns.MEETING_DATE + ", MAX(" + MeetingColumns.TOTAL_DURATION + "), IFNULL(MAX(" + MeetingColumns.STATE + "), "
+            + MeetingColumns.State.FINISHED.ordinal() + "), " + MeetingColumns.TEAM_ID
+            + " FROM " + STAGING_MEETING + " i"
+            + " WHERE " + MeetingColumns.TEAM_ID + " IS NOT NULL"
+            + " AND NOT EXISTS (SELECT 1 FROM " + MeetingColumns.TABLE_NAME + " m"
+            + " WHERE m." + MeetingColumns.TEAM_ID + " = i." + MeetingColumns.TEAM_ID + " AND m." + MeetingColumns.MEETING_DATE + " IS i." + MeetingColumns.MEETING_DATE + ")"
+            + " GROUP BY " + MeetingColumns.TEAM_ID + ", " + MeetingColumns.MEETING_DATE;
+
+    private static final String SQL_MAP_MEETINGS = "UPDATE " + STAGING_MEETING + " SET " + NEW_ID + " ="
+            + " (SELECT MIN(" + MeetingColumns._ID + ") FROM " + MeetingColumns.TABLE_NAME + " m"
+            + " WHERE m." + MeetingColumns.TEAM_ID + " = " + STAGING_MEETING + "." + MeetingColumns.TEAM_ID
+            + " AND m." + MeetingColumns.MEETING_DATE + " IS " + STAGING_MEETING + "." + MeetingColumns.MEETING_DATE + ")";
+
+    // The speaking events of a member in a meeting are only added with the member's participation in the meeting, before
+    // it is added: the durations of the participation already include the events.
+    private static final String SQL_INSERT_MISSING_SPEAKING_EVENTS = "INSERT INTO " + SpeakingEventColumns.TABLE_NAME
+            + " (" + SpeakingEventColumns.MEETING_ID + ", " + SpeakingEventColumns.MEMBER_ID + ", " + SpeakingEventColumns.EVENT_TYPE + ", "
+            + SpeakingEventColumns.EVENT_TIME + ")"
+            + " SELECT mt." + NEW_ID + ", mb." + NEW_ID + ", i." + SpeakingEventColumns.EVENT_TYPE + ", i." + SpeakingEventColumns.EVENT_TIME
+            + " FROM " + STAGING_SPEAKING_EVENT + " i"
+            + " JOIN " + STAGING_MEETING + " mt ON mt." + MeetingColumns._ID + " = i." + SpeakingEventColumns.MEETING_ID
+            + " JOIN " + STAGING_MEMBER + " mb ON mb." + MemberColumns._ID + " = i." + SpeakingEventColumns.MEMBER_ID
+            + " WHERE mt." + NEW_ID + " IS NOT NULL AND mb." + NEW_ID + " IS NOT NULL"
+            + " AND NOT EXISTS (SELECT 1 FROM " + MeetingMemberColumns.TABLE_NAME + " mm"
+            + " WHERE mm." + MeetingMemberColumns.MEETING_ID + " = mt." + NEW_ID + " AND mm." + MeetingMemberColumns.MEMBER_ID + " = mb." + NEW_ID + ")"
+            + " ORDER BY i." + SpeakingEventColumns._ID;
+
+    // A member's participation in a meeting is matched by the new ids of the meeting and the member.
+    private static final String SQL_INSERT_MISSING_MEETING_MEMBERS = "INSERT INTO " + MeetingMemberColumns.TABLE_NAME
+            + " (" + MeetingMemberColumns.MEETING_ID + ", " + MeetingMemberColumns.MEMBER_ID + ", " + MeetingMemberColumns.DURATION + ", "
+            + MeetingMemberColumns.TALK_START_TIME + ")"
+            + " SELECT mt." + NEW_ID + ", mb." + NEW_ID + ", MAX(i." + MeetingMemberColumns.DURATION + "), 0"
+            + " FROM " + STAGING_MEETING_MEMBER + " i"
+            + " JOIN " + STAGING_MEETING + " mt ON mt." + MeetingColumns._ID + " = i." + MeetingMemberColumns.MEETING_ID
+            + " JOIN " + STAGING_MEMBER + " mb ON mb." + MemberColumns._ID + " = i." + MeetingMemberColumns.MEMBER_ID
+            + " WHERE mt." + NEW_ID + " IS NOT NULL AND mb." + NEW_ID + " IS NOT NULL"
+            + " AND NOT EXISTS (SELECT 1 FROM " + MeetingMemberColumns.TABLE_NAME + " mm"
+            + " WHERE mm." + MeetingMemberColumns.MEETING_ID + " = mt." + NEW_ID + " AND mm." + MeetingMemberColumns.MEMBER_ID + " = mb." + NEW_ID + ")"
+            + " GROUP BY mt." + NEW_ID + ", mb." + NEW_ID;
+
+    /**
+     * The number of rows added by a merge, and the number of rows which were already in our database.
+     */
+    public static class MergeResult {
+        public final int rowsWritten;
+        public final int rowsSkipped;
+
+        private MergeResult(int rowsWritten, int rowsSkipped) {
+            this.rowsWritten = rowsWritten;
+            this.rowsSkipped = rowsSkipped;
+        }
+    }
+
+    /**
+     * Replace all our data with the data of the given database or backup file.
+     */
+    public static void importDB(Context context, Uri uri) throws FileNotFoundException {
+        importDB(context, uri, ScrumChatterProvider.METHOD_IMPORT);
+        // The meetings of the last backup may not be ours anymore: the next backup will have all the data.
+        Prefs.getInstance(context).clearBackupState();
+        // Set the first available team as our selected team
+        Cursor c = context.getContentResolver().query(TeamColumns.CONTENT_URI, new String[] { TeamColumns._ID }, null, null, null);
+        if (c != null) {
+            if (c.moveToFirst()) {
+                int teamId = c.getInt(0);
+                Prefs.getInstance(context).setTeamId(teamId);
+            }
+            c.close();
+        }
+    }
+
+    /**
+     * Add the teams, members and meetings of the given database or backup file, which we don't have yet, to our data.
+     */
+    public static MergeResult mergeDB(Context context, Uri uri) throws FileNotFoundException {
+        Bundle result = importDB(context, uri, ScrumChatterProvider.METHOD_MERGE);
+        return new MergeResult(result.getInt(EXTRA_ROWS_WRITTEN), result.getInt(EXTRA_ROWS_SKIPPED));
+    }
+
+    /**
+     * @param method the provider method which reads the file.
+     * @return the result of the provider method.
+     */
+    private static Bundle importDB(Context context, Uri uri, String method) throws FileNotFoundException {
         if (uri.getScheme().equals("file")) {
             File db = new File(uri.getEncodedPath());
-            importDB(context, db);
+            return importDB(context, db, method);
         } else {
             InputStream is = context.getContentResolver().openInputStream(uri);
             File tempDb = new File(context.getCacheDir(), "temp" + System.currentTimeMillis() + ".db");
-            FileOutputStream os = new FileOutputStream(tempDb);
-            if (IOUtils.copy(is, os)) {
-                importDB(context, tempDb);
+            if (!IOUtils.copy(is, tempDb)) throw new IllegalStateException("Couldn't copy " + uri + " to " + tempDb);
+            try {
+                return importDB(context, tempDb, method);
+            } finally {
                 if (!tempDb.delete()) {
                     Log.v(TAG, "Couldn't delete the temporary database " + tempDb);
                 }
@@ -58,52 +199,275 @@ public class DBImport {
         }
     }
 
-    private static void importDB(Context context, File importDb) throws RemoteException, OperationApplicationException {
-        Log.v(TAG, "importDB from " + importDb);
+    private static Bundle importDB(Context context, File importDb, String method) {
+        Log.v(TAG, "importDB from " + importDb + " with " + method);
+        return context.getContentResolver().call(TeamColumns.CONTENT_URI, method, importDb.getAbsolutePath(), null);
+    }
+
+    /**
+     * Add the rows of the given file, which we don't have yet, to the given database, in a single transaction.
+     *
+     * The rows of the file are copied into temporary tables.  Then, for each table, a single statement inserts the missing
+     * rows, and another one finds the ids of the matching rows in our database, so the rows of the child tables can refer to them.
+     *
+     * @return a bundle with the number of rows added ({@link #EXTRA_ROWS_WRITTEN}) and the number of rows of the file
+     * which we already had ({@link #EXTRA_ROWS_SKIPPED}).
+     * @throws IllegalArgumentException if the file comes from a version of the app which we can't merge.
+     */
+    static Bundle mergeDatabase(SQLiteDatabase db, File importDb) {
+        Log.v(TAG, "mergeDatabase from " + importDb);
+        if (DBBackup.isBackup(importDb)) return mergeBackup(db, importDb);
         SQLiteDatabase dbImport = SQLiteDatabase.openDatabase(importDb.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
-        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
-        operations.add(ContentProviderOperation.newDelete(MeetingMemberColumns.CONTENT_URI).build());
-        operations.add(ContentProviderOperation.newDelete(MemberColumns.CONTENT_URI).build());
-        operations.add(ContentProviderOperation.newDelete(MeetingColumns.CONTENT_URI).build());
-        operations.add(ContentProviderOperation.newDelete(TeamColumns.CONTENT_URI).build());
-        buildInsertOperations(dbImport, TeamColumns.CONTENT_URI, TeamColumns.TABLE_NAME, operations);
-        buildInsertOperations(dbImport, MemberColumns.CONTENT_URI, MemberColumns.TABLE_NAME, operations);
-        buildInsertOperations(dbImport, MeetingColumns.CONTENT_URI, MeetingColumns.TABLE_NAME, operations);
-        buildInsertOperations(dbImport, MeetingMemberColumns.CONTENT_URI, MeetingMemberColumns.TABLE_NAME, operations);
-        context.getContentResolver().applyBatch(ScrumChatterProvider.AUTHORITY, operations);
-        // Set the first available team as our selected team
-        Cursor c = context.getContentResolver().query(TeamColumns.CONTENT_URI, new String[] { TeamColumns._ID }, null, null, null);
-        if (c != null) {
-            if (c.moveToFirst()) {
-                int teamId = c.getInt(0);
-                Prefs.getInstance(context).setTeamId(teamId);
+        try {
+            int version = dbImport.getVersion();
+            if (version < MIN_MERGE_VERSION || version > ScrumChatterDatabase.DATABASE_VERSION) {
+                throw new IllegalArgumentException("Can't merge " + importDb + " with version " + version);
             }
-            c.close();
+            long startTime = SystemClock.elapsedRealtime();
+            int rowsRead = 0;
+            int rowsWritten = 0;
+            db.beginTransaction();
+            try {
+                for (String table : TABLES) {
+                    String stagingTable = STAGING_PREFIX + table;
+                    db.execSQL("CREATE TEMP TABLE " + stagingTable + " AS SELECT * FROM " + table + " WHERE 0");
+                    rowsRead += copyTable(dbImport, table, db, stagingTable);
+                }
+                if (version < ScrumChatterDatabase.VERSION_DURATION_MILLIS) {
+                    db.execSQL(ScrumChatterDatabase.getConvertDurationsToMillisSql(STAGING_MEETING_MEMBER));
+                }
+                for (String stagingTable : new String[]{STAGING_TEAM, STAGING_MEMBER, STAGING_MEETING}) {
+                    db.execSQL("ALTER TABLE " + stagingTable + " ADD COLUMN " + NEW_ID + " INTEGER");
+                    db.execSQL("CREATE INDEX " + stagingTable + "_id_idx ON " + stagingTable + " (" + BaseColumns._ID + ")");
+                }
+
+                rowsWritten += executeUpdateDelete(db, SQL_INSERT_MISSING_TEAMS);
+                db.execSQL(SQL_MAP_TEAMS);
+
+                db.execSQL(SQL_MAP_MEMBER_TEAMS);
+                rowsWritten += executeUpdateDelete(db, SQL_INSERT_MISSING_MEMBERS);
+                db.execSQL(SQL_MAP_MEMBERS);
+
+                db.execSQL(SQL_MAP_MEETING_TEAMS);
+                rowsWritten += executeUpdateDelete(db, SQL_INSERT_MISSING_MEETINGS);
+                db.execSQL(SQL_MAP_MEETINGS);
+
+                rowsWritten += executeUpdateDelete(db, SQL_INSERT_MISSING_SPEAKING_EVENTS);
+                rowsWritten += executeUpdateDelete(db, SQL_INSERT_MISSING_MEETING_MEMBERS);
+
+                for (String table : TABLES) {
+                    db.execSQL("DROP TABLE " + STAGING_PREFIX + table);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            long duration = SystemClock.elapsedRealtime() - startTime;
+            int rowsSkipped = rowsRead - rowsWritten;
+            Log.v(TAG, "Merged " + rowsRead + " rows from version " + version + " in " + duration + "ms: "
+                    + rowsWritten + " written, " + rowsSkipped + " skipped");
+            Bundle result = new Bundle(2);
+            result.putInt(EXTRA_ROWS_WRITTEN, rowsWritten);
+            result.putInt(EXTRA_ROWS_SKIPPED, rowsSkipped);
+            return result;
+        } finally {
+            dbImport.close();
         }
-        dbImport.close();
     }
 
-    private static void buildInsertOperations(SQLiteDatabase dbImport, Uri uri, String table, ArrayList<ContentProviderOperation> operations) {
-        Log.v(TAG, "buildInsertOperations: uri = " + uri + ", table=" + table);
-        Cursor c = dbImport.query(false, table, null, null, null, null, null, null, null);
-        if (c != null) {
+    /**
+     * Replay the given backup file into a temporary database with our tables, and merge this database.
+     *
+     * @throws IllegalArgumentException if the file is corrupt or comes from a newer version of the app.
+     */
+    private static Bundle mergeBackup(SQLiteDatabase db, File backupFile) {
+        File tempDb = new File(new File(db.getPath()).getParentFile(), "merge" + System.currentTimeMillis() + ".db");
+        long startTime = SystemClock.elapsedRealtime();
+        SQLiteDatabase backupDb = SQLiteDatabase.openDatabase(tempDb.getAbsolutePath(), null, SQLiteDatabase.CREATE_IF_NECESSARY);
+        try {
+            // As in our database, the rows deleted by a segment take their children with them.
+            backupDb.execSQL("PRAGMA foreign_keys=ON;");
+            backupDb.beginTransaction();
             try {
-                if (c.moveToFirst()) {
-                    int columnCount = c.getColumnCount();
-                    do {
-                        Builder builder = ContentProviderOperation.newInsert(uri);
-                        for (int i = 0; i < columnCount; i++) {
-                            String columnName = c.getColumnName(i);
-                            Object value = c.getString(i);
-                            builder.withValue(columnName, value);
-                        }
-                        operations.add(builder.build());
-                    } while (c.moveToNext());
+                // Only the tables: without our triggers, the replayed rows are copied as they are.
+                for (String table : TABLES) {
+                    backupDb.execSQL(DatabaseUtils.stringForQuery(db, "SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?",
+                            new String[]{table}));
                 }
+                int rowCount = DBBackup.replay(backupDb, backupFile);
+                // The replay converts the rows of older segments to our version.
+                backupDb.setVersion(ScrumChatterDatabase.DATABASE_VERSION);
+                backupDb.setTransactionSuccessful();
+                Log.v(TAG, "mergeBackup: replayed " + rowCount + " rows in " + (SystemClock.elapsedRealtime() - startTime) + "ms");
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Can't read the backup " + backupFile + ": " + e.getMessage(), e);
             } finally {
-                c.close();
+                backupDb.endTransaction();
             }
+        } finally {
+            backupDb.close();
         }
+        try {
+            return mergeDatabase(db, tempDb);
+        } finally {
+            for (File file : new File[]{tempDb, new File(tempDb.getPath() + "-journal")}) {
+                if (file.exists() && !file.delete()) Log.v(TAG, "Couldn't delete " + file);
+            }
+        }
+    }
+
+    /**
+     * @return the number of rows changed by the given insert, update or delete statement.
+     */
+    private static int executeUpdateDelete(SQLiteDatabase db, String sql) {
+        SQLiteStatement statement = db.compileStatement(sql);
+        try {
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
 
+    /**
+     * Replace all the data in the given database with the data of the given database or backup file, in a single transaction.
+     *
+     * The rows are read from the file one cursor window at a time, and inserted with their original types, so the memory used
+     * doesn't depend on the size of the file.  Only the columns which exist in both databases are copied, so files from older
+     * versions of the app can be imported.
+     *
+     * @return the number of rows copied.
+     * @throws IllegalArgumentException if the file comes from a newer version of the app.
+     */
+    static int copyDatabase(SQLiteDatabase db, File importDb) {
+        Log.v(TAG, "copyDatabase from " + importDb);
+        if (DBBackup.isBackup(importDb)) return restoreBackup(db, importDb);
+        SQLiteDatabase dbImport = SQLiteDatabase.openDatabase(importDb.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            int version = dbImport.getVersion();
+            if (version > ScrumChatterDatabase.DATABASE_VERSION) {
+                throw new IllegalArgumentException("Can't import " + importDb + ": its version " + version
+                        + " is newer than our version " + ScrumChatterDatabase.DATABASE_VERSION);
+            }
+            long startTime = SystemClock.elapsedRealtime();
+            int rowCount = 0;
+            db.beginTransaction();
+            try {
+                deleteAll(db);
+                for (String table : TABLES) {
+                    rowCount += copyTable(dbImport, table, db, table);
+                }
+                if (version < ScrumChatterDatabase.VERSION_DURATION_MILLIS) {
+                    db.execSQL(ScrumChatterDatabase.getConvertDurationsToMillisSql(MeetingMemberColumns.TABLE_NAME));
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            long duration = SystemClock.elapsedRealtime() - startTime;
+            Log.v(TAG, "Imported " + rowCount + " rows from version " + version + " in " + duration + "ms ("
+                    + (rowCount * 1000L / Math.max(duration, 1)) + " rows/s)");
+            return rowCount;
+        } finally {
+            dbImport.close();
+        }
+    }
+
+    /**
+     * Replace all the data in the given database by replaying all the segments of the given backup file, in a single transaction.
+     *
+     * @return the number of rows read.
+     * @throws IllegalArgumentException if the file is corrupt or comes from a newer version of the app.
+     */
+    private static int restoreBackup(SQLiteDatabase db, File backupFile) {
+        long startTime = SystemClock.elapsedRealtime();
+        int rowCount;
+        db.beginTransaction();
+        try {
+            deleteAll(db);
+            rowCount = DBBackup.replay(db, backupFile);
+            db.setTransactionSuccessful();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't read the backup " + backupFile + ": " + e.getMessage(), e);
+        } finally {
+            db.endTransaction();
+        }
+        long duration = SystemClock.elapsedRealtime() - startTime;
+        Log.v(TAG, "Restored " + rowCount + " rows from " + backupFile.length() + " bytes in " + duration + "ms ("
+                + (rowCount * 1000L / Math.max(duration, 1)) + " rows/s)");
+        return rowCount;
+    }
+
+    private static void deleteAll(SQLiteDatabase db) {
+        // Delete the children before the parents.
+        for (int i = TABLES.length - 1; i >= 0; i--) {
+            db.delete(TABLES[i], null, null);
+        }
+    }
+
+    /**
+     * Copy all the rows of the given table from dbImport to the given table of db.
+     *
+     * @return the number of rows copied.
+     */
+    static int copyTable(SQLiteDatabase dbImport, String importTable, SQLiteDatabase db, String table) {
+        List<String> columns = getColumns(db, table);
+        columns.retainAll(getColumns(dbImport, importTable));
+        Log.v(TAG, "copyTable " + importTable + " to " + table + ": columns " + columns);
+        if (columns.isEmpty()) return 0;
+
+        String columnList = TextUtils.join(", ", columns);
+        String[] placeholders = new String[columns.size()];
+        for (int i = 0; i < placeholders.length; i++) placeholders[i] = "?";
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + table + " (" + columnList + ") VALUES ("
+                + TextUtils.join(", ", placeholders) + ")");
+        Cursor c = dbImport.rawQuery("SELECT " + columnList + " FROM " + importTable, null);
+        int rowCount = 0;
+        try {
+            while (c.moveToNext()) {
+                for (int i = 0; i < placeholders.length; i++) {
+                    switch (c.getType(i)) {
+                        case Cursor.FIELD_TYPE_NULL:
+                            insert.bindNull(i + 1);
+                            break;
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            insert.bindLong(i + 1, c.getLong(i));
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            insert.bindDouble(i + 1, c.getDouble(i));
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            insert.bindBlob(i + 1, c.getBlob(i));
+                            break;
+                        default:
+                            insert.bindString(i + 1, c.getString(i));
+                            break;
+                    }
+                }
+                insert.executeInsert();
+                rowCount++;
+            }
+        } finally {
+            c.close();
+            insert.close();
+        }
+        Log.v(TAG, "copyTable " + table + ": copied " + rowCount + " rows");
+        return rowCount;
+    }
+
+    /**
+     * @return the names of the columns of the given table.
+     */
+    static List<String> getColumns(SQLiteDatabase db, String table) {
+        List<String> columns = new ArrayList<>();
+        Cursor c = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = c.getColumnIndex("name");
+            while (c.moveToNext()) {
+                columns.add(c.getString(nameIndex));
+            }
+        } finally {
+            c.close();
+        }
+        return columns;
     }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.annotation.WorkerThread;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.util.Log;
+
+/**
+ * Creates a compact and consistent copy of the database, while the app may still be writing to it.
+ */
+public class DBSnapshot {
+    private static final String TAG = Constants.TAG + "/" + DBSnapshot.class.getSimpleName();
+
+    private static final String TEMP_SUFFIX = ".part";
+
+    // VACUUM INTO was added in SQLite 3.27.0.
+    private static final int[] MIN_VACUUM_INTO_VERSION = {3, 27, 0};
+
+    private DBSnapshot() {
+        // prevent instantiation
+    }
+
+    /**
+     * Write a snapshot of the database to the given file.  The file is only replaced once the snapshot is complete.
+     *
+     * @return true if the snapshot was created.
+     */
+    @WorkerThread
+    public static boolean create(Context context, File file) {
+        File dbFile = context.getDatabasePath(ScrumChatterDatabase.DATABASE_NAME);
+        File walFile = new File(dbFile.getPath() + "-wal");
+        File tempFile = new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+        if (tempFile.exists() && !tempFile.delete()) {
+            Log.v(TAG, "Couldn't delete " + tempFile);
+            return false;
+        }
+        long startTime = SystemClock.elapsedRealtime();
+        boolean vacuumInto;
+        try {
+            vacuumInto = vacuumInto(dbFile, tempFile);
+            // Older versions of SQLite: copy the database in a read transaction.
+            if (!vacuumInto) copy(dbFile, tempFile);
+        } catch (SQLException e) {
+            Log.v(TAG, "Couldn't create the snapshot " + tempFile + ": " + e.getMessage(), e);
+            if (tempFile.exists() && !tempFile.delete()) Log.v(TAG, "Couldn't delete " + tempFile);
+            return false;
+        }
+        if (!tempFile.renameTo(file)) {
+            Log.v(TAG, "Couldn't rename " + tempFile + " to " + file);
+            return false;
+        }
+        long duration = SystemClock.elapsedRealtime() - startTime;
+        Log.v(TAG, "Created snapshot " + file + (vacuumInto ? " with VACUUM INTO" : " with a copy") + " in " + duration + "ms: "
+                + file.length() + " bytes, from a live database of " + dbFile.length() + " bytes and a write-ahead log of "
+                + walFile.length() + " bytes");
+        return true;
+    }
+
+    /**
+     * If our version of SQLite supports it, write the snapshot with VACUUM INTO, on a read-only connection which doesn't
+     * block the provider.
+     *
+     * @return false if VACUUM INTO isn't supported.
+     */
+    private static boolean vacuumInto(File dbFile, File snapshotFile) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            String sqliteVersion = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null);
+            Log.v(TAG, "SQLite version " + sqliteVersion);
+            if (!isAtLeast(sqliteVersion, MIN_VACUUM_INTO_VERSION)) return false;
+            db.execSQL("VACUUM INTO ?", new Object[]{snapshotFile.getAbsolutePath()});
+            return true;
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Copy the database on a separate read-only connection, in a read transaction.  With write-ahead logging, the
+     * transaction sees the database as it was when it started, and the provider can keep writing during the copy.
+     */
+    private static void copy(File dbFile, File snapshotFile) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            // SQLiteDatabase.beginTransaction() would take the write lock.  Outside a transaction, a savepoint starts
+            // a deferred transaction, which only takes a read lock.
+            db.execSQL("SAVEPOINT snapshot");
+            try {
+                copyDatabase(db, snapshotFile);
+            } finally {
+                db.execSQL("RELEASE snapshot");
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    private static boolean isAtLeast(String version, int[] minVersion) {
+        String[] parts = version.split("\\.");
+        for (int i = 0; i < minVersion.length; i++) {
+            int part = i < parts.length ? Integer.parseInt(parts[i]) : 0;
+            if (part != minVersion[i]) return part > minVersion[i];
+        }
+        return true;
+    }
+
+    /**
+     * Copy the schema and all the rows of the given database to a new database file.  This must be called inside a
+     * transaction, so the rows of all the tables are consistent.
+     */
+    private static void copyDatabase(SQLiteDatabase db, File snapshotFile) {
+        SQLiteDatabase snapshot = SQLiteDatabase.openDatabase(snapshotFile.getAbsolutePath(), null,
+                SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        try {
+            List<String> tables = new ArrayList<>();
+            List<String> tableSql = new ArrayList<>();
+            // Indexes, views and triggers are created after the rows are copied, so the triggers don't run for the copied rows.
+            List<String> otherSql = new ArrayList<>();
+            Cursor c = db.rawQuery("SELECT type, name, sql FROM sqlite_master WHERE sql IS NOT NULL AND name NOT LIKE 'sqlite_%'", null);
+            try {
+                while (c.moveToNext()) {
+                    if ("table".equals(c.getString(0))) {
+                        tables.add(c.getString(1));
+                        tableSql.add(c.getString(2));
+                    } else {
+                        otherSql.add(c.getString(2));
+                    }
+                }
+            } finally {
+                c.close();
+            }
+            snapshot.beginTransaction();
+            try {
+                for (String sql : tableSql) snapshot.execSQL(sql);
+                for (String table : tables) DBImport.copyTable(db, table, snapshot, table);
+                for (String sql : otherSql) snapshot.execSQL(sql);
+                snapshot.setVersion(db.getVersion());
+                snapshot.setTransactionSuccessful();
+            } finally {
+                snapshot.endTransaction();
+            }
+        } finally {
+            snapshot.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.util.Log;
+
+/**
+ * Keeps a histogram of the durations of each operation, per uri type and table.
+ */
+class HistogramQueryProfiler implements QueryProfiler {
+    private static final String TAG = Constants.TAG + "/" + HistogramQueryProfiler.class.getSimpleName();
+
+    // Bucket i counts the durations under 2^i microseconds (and over the limit of the previous bucket).
+    // The last bucket counts all the longer durations.
+    private static final int BUCKET_COUNT = 22;
+
+    private final Map<String, Histogram> mHistograms = new TreeMap<>();
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public synchronized void record(Operation operation, int uriType, String table, long durationNanos, long fillWindowNanos, int rowCount) {
+        Log.v(TAG, operation + " " + table + " (uri type " + uriType + "): " + TimeUnit.NANOSECONDS.toMicros(durationNanos) + "us, fill window "
+                + TimeUnit.NANOSECONDS.toMicros(fillWindowNanos) + "us, " + rowCount + " rows");
+        String key = operation + " " + table + " (uri type " + uriType + ")";
+        Histogram histogram = mHistograms.get(key);
+        if (histogram == null) {
+            histogram = new Histogram();
+            mHistograms.put(key, histogram);
+        }
+        histogram.add(durationNanos, fillWindowNanos, rowCount);
+    }
+
+    @Override
+    public synchronized void dump(PrintWriter writer) {
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            writer.println(entry.getKey());
+            entry.getValue().dump(writer);
+        }
+    }
+
+    private static class Histogram {
+        private final int[] mBuckets = new int[BUCKET_COUNT];
+        private int mCount;
+        private long mTotalNanos;
+        private long mMaxNanos;
+        private long mTotalFillWindowNanos;
+        private long mTotalRows;
+
+        void add(long durationNanos, long fillWindowNanos, int rowCount) {
+            mBuckets[getBucket(durationNanos)]++;
+            mCount++;
+            mTotalNanos += durationNanos;
+            mMaxNanos = Math.max(mMaxNanos, durationNanos);
+            mTotalFillWindowNanos += fillWindowNanos;
+            mTotalRows += rowCount;
+        }
+
+        private static int getBucket(long durationNanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(durationNanos);
+            // The number of bits needed for the duration in microseconds.
+            int bucket = 64 - Long.numberOfLeadingZeros(micros);
+            return Math.min(bucket, BUCKET_COUNT - 1);
+        }
+
+        void dump(PrintWriter writer) {
+            writer.println("  count=" + mCount
+                    + ", avg=" + TimeUnit.NANOSECONDS.toMicros(mTotalNanos / mCount) + "us"
+                    + ", max=" + TimeUnit.NANOSECONDS.toMicros(mMaxNanos) + "us"
+                    + ", avg fill window=" + TimeUnit.NANOSECONDS.toMicros(mTotalFillWindowNanos / mCount) + "us"
+                    + ", avg rows=" + (mTotalRows / mCount));
+            for (int i = 0; i < mBuckets.length; i++) {
+                if (mBuckets[i] == 0) continue;
+                String limit = i == mBuckets.length - 1 ? "longer" : "< " + (1L << i) + "us";
+                writer.println("  " + limit + ": " + mBuckets[i]);
+            }
+        }
+    }
+}
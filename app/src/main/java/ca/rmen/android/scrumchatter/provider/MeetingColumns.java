@@ -36,9 +36,40 @@ public class MeetingColumns implements BaseColumns {
     public static final String MEETING_DATE = "meeting_date";
     public static final String TOTAL_DURATION = "total_duration";
     public static final String STATE = "state";
+    /**
+     * The last time the meeting was known to be running, read from the {@link ca.rmen.android.scrumchatter.util.Clock}
+     * while it is in progress.  Turns which are still open when the app starts are closed at this time.
+     */
+    static final String HEARTBEAT_TIME = "heartbeat_time";
 
     static final String DEFAULT_ORDER = _ID;
 
+    /**
+     * @return the uri of the meetings of the given team.  Observers of this uri are only notified of changes in this team.
+     */
+    public static Uri getTeamContentUri(long teamId) {
+        return TeamColumns.CONTENT_URI.buildUpon().appendPath(String.valueOf(teamId)).appendPath(TABLE_NAME).build();
+    }
+
+    /**
+     * @return the uri of at most {@code limit} meetings of the given team.  Use {@link #PAGE_ORDER} and
+     * {@link #PAGE_AFTER_SELECTION} to read the following meetings, one page at a time.
+     */
+    public static Uri getTeamContentUri(long teamId, int limit) {
+        return getTeamContentUri(teamId).buildUpon().appendQueryParameter(ScrumChatterProvider.QUERY_LIMIT, String.valueOf(limit)).build();
+    }
+
+    /**
+     * Most recent meetings first.  The id breaks the ties between meetings with the same date.
+     */
+    public static final String PAGE_ORDER = MEETING_DATE + " DESC, " + _ID + " DESC";
+
+    /**
+     * Selects the meetings after a given meeting, in the {@link #PAGE_ORDER}.  The arguments are the meeting date,
+     * the meeting date again, and the meeting id.
+     */
+    public static final String PAGE_AFTER_SELECTION = MEETING_DATE + " <= ? AND NOT (" + MEETING_DATE + " = ? AND " + _ID + " >= ?)";
+
     public enum State {
         NOT_STARTED, IN_PROGRESS, FINISHED
     }
@@ -36,7 +36,27 @@ public class MeetingMemberColumns implements BaseColumns {
     public static final String _ID = MemberColumns.TABLE_NAME + "." + MemberColumns._ID + " AS " + BaseColumns._ID;
     public static final String MEETING_ID = "meeting_id";
     public static final String MEMBER_ID = "member_id";
+    /**
+     * The time the member talked, in milliseconds (in seconds before version 6 of the database).
+     */
     public static final String DURATION = "duration";
     public static final String TALK_START_TIME = "talk_start_time";
 
+    /**
+     * The shortest duration, in milliseconds, of a member who talked.  The durations are displayed in whole seconds:
+     * shorter turns, like a tap on the wrong member, would be displayed as 00:00.
+     */
+    public static final int MIN_TALKED_DURATION = 1000;
+
+    /**
+     * Selects the members who talked for at least {@link #MIN_TALKED_DURATION}.
+     */
+    public static final String SELECTION_TALKED = DURATION + " >= " + MIN_TALKED_DURATION;
+
+    /**
+     * @return the uri of the meeting members of the given team.  Observers of this uri are only notified of changes in this team.
+     */
+    public static Uri getTeamContentUri(long teamId) {
+        return TeamColumns.CONTENT_URI.buildUpon().appendPath(String.valueOf(teamId)).appendPath(TABLE_NAME).build();
+    }
 }
\ No newline at end of file
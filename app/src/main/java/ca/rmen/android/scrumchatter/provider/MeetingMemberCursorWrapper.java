@@ -45,7 +45,17 @@ public class MeetingMemberCursorWrapper extends CursorWrapper {
         return getString(index);
     }
 
+    /**
+     * @return the time the member talked, in seconds.
+     */
     public long getDuration() {
+        return getDurationMillis() / 1000;
+    }
+
+    /**
+     * @return the time the member talked, in milliseconds.
+     */
+    public long getDurationMillis() {
         return getLongField(MeetingMemberColumns.DURATION);
     }
 
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.util.Log;
+
+/**
+ * Precompiled statements for the writes to the meeting_member table which happen the most often: when a
+ * meeting is created and every time a member starts or stops talking.  Also the heartbeat of a meeting in progress,
+ * which is written every few seconds.
+ *
+ * Members start and stop talking by appending a row to the speaking_event table.  A trigger on this table updates the
+ * duration and talk start time of the meeting_member row.
+ *
+ * The statements are compiled the first time they're used, and compiled again if the database is reopened.
+ */
+class MeetingMemberStatements {
+    private static final String TAG = Constants.TAG + "/" + MeetingMemberStatements.class.getSimpleName();
+
+    private static final String SQL_SELECT_TALK_START_TIME = "SELECT "
+            + MeetingMemberColumns.TALK_START_TIME
+            + " FROM " + MeetingMemberColumns.TABLE_NAME
+            + " WHERE " + MeetingMemberColumns.MEETING_ID + " = ?"
+            + " AND " + MeetingMemberColumns.MEMBER_ID + " = ?";
+
+    private static final String SQL_INSERT_SPEAKING_EVENT = "INSERT INTO "
+            + SpeakingEventColumns.TABLE_NAME
+            + " (" + SpeakingEventColumns.MEETING_ID + ", " + SpeakingEventColumns.MEMBER_ID + ", "
+            + SpeakingEventColumns.EVENT_TYPE + ", " + SpeakingEventColumns.EVENT_TIME + ")";
+
+    // Add a start event for the member, if they're in the meeting and not talking already.
+    private static final String SQL_START_TALKING = SQL_INSERT_SPEAKING_EVENT
+            + " SELECT " + MeetingMemberColumns.MEETING_ID + ", " + MeetingMemberColumns.MEMBER_ID + ", "
+            + SpeakingEventColumns.EventType.START.ordinal() + ", ?"
+            + " FROM " + MeetingMemberColumns.TABLE_NAME
+            + " WHERE " + MeetingMemberColumns.MEETING_ID + " = ?"
+            + " AND " + MeetingMemberColumns.MEMBER_ID + " = ?"
+            + " AND IFNULL(" + MeetingMemberColumns.TALK_START_TIME + ", 0) = 0";
+
+    // Add a stop event for each member who is talking.
+    private static final String SQL_STOP_TALKING = SQL_INSERT_SPEAKING_EVENT
+            + " SELECT " + MeetingMemberColumns.MEETING_ID + ", " + MeetingMemberColumns.MEMBER_ID + ", "
+            + SpeakingEventColumns.EventType.STOP.ordinal() + ", ?"
+            + " FROM " + MeetingMemberColumns.TABLE_NAME
+            + " WHERE " + MeetingMemberColumns.MEETING_ID + " = ?"
+            + " AND " + MeetingMemberColumns.TALK_START_TIME + " > 0";
+
+    private static final String SQL_APPEND_SPEAKING_EVENT = SQL_INSERT_SPEAKING_EVENT + " VALUES (?, ?, ?, ?)";
+
+    private static final String SQL_STOP_TALKING_MEMBER = SQL_STOP_TALKING
+            + " AND " + MeetingMemberColumns.MEMBER_ID + " = ?";
+
+    private static final String SQL_UPDATE_HEARTBEAT = "UPDATE " + MeetingColumns.TABLE_NAME
+            + " SET " + MeetingColumns.HEARTBEAT_TIME + " = ?"
+            + " WHERE " + MeetingColumns._ID + " = ?";
+
+    // Add a stop event for each member still talking in a meeting in progress, in all the teams, at the last heartbeat
+    // of the meeting.  The meetings in progress are found with the state index, and their members with the unique
+    // (meeting_id, member_id) index.  Without a heartbeat, or if the member started talking after the last heartbeat,
+    // the turn is closed when it started: it's better to lose one turn than to count the time the app wasn't running.
+    private static final String SQL_STOP_INTERRUPTED_TURNS = SQL_INSERT_SPEAKING_EVENT
+            + " SELECT mm." + MeetingMemberColumns.MEETING_ID + ", mm." + MeetingMemberColumns.MEMBER_ID + ", "
+            + SpeakingEventColumns.EventType.STOP.ordinal() + ", "
+            + "MAX(mm." + MeetingMemberColumns.TALK_START_TIME + ", IFNULL(m." + MeetingColumns.HEARTBEAT_TIME + ", 0))"
+            + " FROM " + MeetingColumns.TABLE_NAME + " m"
+            + " JOIN " + MeetingMemberColumns.TABLE_NAME + " mm ON mm." + MeetingMemberColumns.MEETING_ID + " = m." + MeetingColumns._ID
+            + " WHERE m." + MeetingColumns.STATE + " = " + MeetingColumns.State.IN_PROGRESS.ordinal()
+            + " AND mm." + MeetingMemberColumns.TALK_START_TIME + " > 0";
+
+    // Add all the members of a team, who haven't been deleted, to a meeting.
+    private static final String SQL_INSERT_TEAM_MEMBERS = "INSERT INTO "
+            + MeetingMemberColumns.TABLE_NAME
+            + " (" + MeetingMemberColumns.MEETING_ID + ", " + MeetingMemberColumns.MEMBER_ID + ", " + MeetingMemberColumns.DURATION + ")"
+            + " SELECT ?, " + MemberColumns._ID + ", 0"
+            + " FROM " + MemberColumns.TABLE_NAME
+            + " WHERE " + MemberColumns.TEAM_ID + " = ?"
+            + " AND " + MemberColumns.DELETED + " = 0";
+
+    private SQLiteDatabase mDb;
+    private SQLiteStatement mSelectTalkStartTime;
+    private SQLiteStatement mStartTalking;
+    private SQLiteStatement mStopTalking;
+    private SQLiteStatement mStopTalkingMember;
+    private SQLiteStatement mAppendSpeakingEvent;
+    private SQLiteStatement mInsertTeamMembers;
+    private SQLiteStatement mUpdateHeartbeat;
+
+    /**
+     * @return true if the chronometer of the given member is running.
+     */
+    synchronized boolean isTalking(SQLiteDatabase db, long meetingId, long memberId) {
+        prepare(db);
+        mSelectTalkStartTime.bindLong(1, meetingId);
+        mSelectTalkStartTime.bindLong(2, memberId);
+        try {
+            return mSelectTalkStartTime.simpleQueryForLong() > 0;
+        } catch (SQLiteDoneException e) {
+            // The member isn't in this meeting.
+            return false;
+        }
+    }
+
+    /**
+     * Start the chronometer of the given member, if it isn't running.
+     *
+     * @return the number of events added
+     */
+    synchronized int startTalking(SQLiteDatabase db, long meetingId, long memberId, long now) {
+        prepare(db);
+        mStartTalking.bindLong(1, now);
+        mStartTalking.bindLong(2, meetingId);
+        mStartTalking.bindLong(3, memberId);
+        return mStartTalking.executeUpdateDelete();
+    }
+
+    /**
+     * Stop the chronometer of the given member, if they are talking, and add the time they talked to their duration.
+     *
+     * @return the number of events added
+     */
+    synchronized int stopTalking(SQLiteDatabase db, long meetingId, long memberId, long now) {
+        prepare(db);
+        mStopTalkingMember.bindLong(1, now);
+        mStopTalkingMember.bindLong(2, meetingId);
+        mStopTalkingMember.bindLong(3, memberId);
+        return mStopTalkingMember.executeUpdateDelete();
+    }
+
+    /**
+     * Stop the chronometers of all the members who are talking in the given meeting.
+     *
+     * @return the number of events added
+     */
+    synchronized int stopTalking(SQLiteDatabase db, long meetingId, long now) {
+        prepare(db);
+        mStopTalking.bindLong(1, now);
+        mStopTalking.bindLong(2, meetingId);
+        return mStopTalking.executeUpdateDelete();
+    }
+
+    /**
+     * Add the given event, as it happened.  Unlike {@link #startTalking} and {@link #stopTalking}, the event is added
+     * even if the member was already in the state of the event: the meeting_member row just won't change.
+     */
+    synchronized void appendSpeakingEvent(SQLiteDatabase db, long meetingId, long memberId, SpeakingEventColumns.EventType eventType, long time) {
+        prepare(db);
+        mAppendSpeakingEvent.bindLong(1, meetingId);
+        mAppendSpeakingEvent.bindLong(2, memberId);
+        mAppendSpeakingEvent.bindLong(3, eventType.ordinal());
+        mAppendSpeakingEvent.bindLong(4, time);
+        mAppendSpeakingEvent.executeInsert();
+    }
+
+    /**
+     * Record that the given meeting is still running at the given time.
+     */
+    synchronized void updateHeartbeat(SQLiteDatabase db, long meetingId, long now) {
+        prepare(db);
+        mUpdateHeartbeat.bindLong(1, now);
+        mUpdateHeartbeat.bindLong(2, meetingId);
+        mUpdateHeartbeat.executeUpdateDelete();
+    }
+
+    /**
+     * Stop the chronometers which were left running in the meetings in progress, of all the teams, when the app was
+     * killed: each turn ends at the last heartbeat of its meeting.  This is only done once per process, so the
+     * statement isn't kept.
+     *
+     * @return the number of events added
+     */
+    synchronized int stopInterruptedTurns(SQLiteDatabase db) {
+        SQLiteStatement statement = db.compileStatement(SQL_STOP_INTERRUPTED_TURNS);
+        try {
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Add all the current members of the given team to the given meeting.
+     *
+     * @return the number of members added to the meeting.
+     */
+    synchronized int insertTeamMembers(SQLiteDatabase db, long meetingId, long teamId) {
+        prepare(db);
+        mInsertTeamMembers.bindLong(1, meetingId);
+        mInsertTeamMembers.bindLong(2, teamId);
+        return mInsertTeamMembers.executeUpdateDelete();
+    }
+
+    private void prepare(SQLiteDatabase db) {
+        if (db == mDb) return;
+        Log.v(TAG, "compiling statements for " + db);
+        close();
+        mDb = db;
+        mSelectTalkStartTime = db.compileStatement(SQL_SELECT_TALK_START_TIME);
+        mStartTalking = db.compileStatement(SQL_START_TALKING);
+        mStopTalking = db.compileStatement(SQL_STOP_TALKING);
+        mStopTalkingMember = db.compileStatement(SQL_STOP_TALKING_MEMBER);
+        mAppendSpeakingEvent = db.compileStatement(SQL_APPEND_SPEAKING_EVENT);
+        mInsertTeamMembers = db.compileStatement(SQL_INSERT_TEAM_MEMBERS);
+        mUpdateHeartbeat = db.compileStatement(SQL_UPDATE_HEARTBEAT);
+    }
+
+    private void close() {
+        if (mDb == null) return;
+        mSelectTalkStartTime.close();
+        mStartTalking.close();
+        mStopTalking.close();
+        mStopTalkingMember.close();
+        mAppendSpeakingEvent.close();
+        mInsertTeamMembers.close();
+        mUpdateHeartbeat.close();
+        mDb = null;
+    }
+}
@@ -41,14 +41,20 @@ public class MemberCursorWrapper extends CursorWrapper {
         return getString(index);
     }
 
+    /**
+     * @return the average time the member talked in a meeting, in seconds.
+     */
     public Integer getAverageDuration() {
         Integer index = getIndex(MemberStatsColumns.AVG_DURATION);
-        return getInt(index);
+        return (int) (getDouble(index) / 1000);
     }
 
+    /**
+     * @return the total time the member talked in all meetings, in seconds.
+     */
     public Integer getSumDuration() {
         Integer index = getIndex(MemberStatsColumns.SUM_DURATION);
-        return getInt(index);
+        return (int) (getLong(index) / 1000);
     }
 
     private Integer getIndex(String columnName) {
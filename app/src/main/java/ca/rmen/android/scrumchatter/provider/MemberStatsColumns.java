@@ -36,4 +36,20 @@ public class MemberStatsColumns implements BaseColumns {
     public static final String AVG_DURATION = "avg_duration";
 
     static final String DEFAULT_ORDER = _ID;
+
+    /**
+     * @return the uri of the member stats of the given team.  Observers of this uri are only notified of changes in this team.
+     */
+    public static Uri getTeamContentUri(long teamId) {
+        return TeamColumns.CONTENT_URI.buildUpon().appendPath(String.valueOf(teamId)).appendPath(VIEW_NAME).build();
+    }
+
+    /**
+     * The member_stats view reads its durations from this table, which is kept up to date by triggers on the meeting_member table.
+     */
+    static final String AGG_TABLE_NAME = "member_stats_agg";
+    static final String AGG_MEMBER_ID = "member_id";
+    static final String AGG_COUNT = "meeting_count";
+    static final String AGG_SUM = "sum_duration";
+    static final String AGG_SUM_SQUARES = "sum_squares_duration";
 }
\ No newline at end of file
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.util.Log;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Collects the uris to notify during a short window, or until the end of a batch, and then notifies each uri only once.
+ * A batch only holds the uris requested by its own thread: the other threads keep being notified during a long batch.
+ *
+ * Notifying a uri also notifies the observers of the uris below it (notifying meeting_member notifies the observers
+ * of meeting_member/1), so a uri isn't notified if one of its parents is also pending.
+ */
+class NotificationCoalescer {
+    private static final String TAG = Constants.TAG + "/" + NotificationCoalescer.class.getSimpleName();
+
+    private final ContentResolver mContentResolver;
+    private final long mWindowMillis;
+    private final Set<Uri> mPendingUris = new LinkedHashSet<>();
+    private boolean mDispatchScheduled;
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+    // Counters since the provider was created, logged on every dispatch.
+    private long mRequestedCount;
+    private long mDeliveredCount;
+
+    private static class Batch {
+        int depth;
+        final Set<Uri> uris = new LinkedHashSet<>();
+    }
+
+    /**
+     * @param windowMillis how long to wait after a uri is first requested before notifying it.
+     */
+    NotificationCoalescer(ContentResolver contentResolver, long windowMillis) {
+        mContentResolver = contentResolver;
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Notify the given uri at the end of the current window or batch.
+     */
+    void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        synchronized (this) {
+            mRequestedCount++;
+            if (batch == null) {
+                mPendingUris.add(uri);
+                if (!mDispatchScheduled) {
+                    mDispatchScheduled = true;
+                    Schedulers.io().scheduleDirect(this::dispatch, mWindowMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        if (batch != null) batch.uris.add(uri);
+    }
+
+    /**
+     * Hold the notifications requested by this thread until the matching call to {@link #endBatch()}.
+     */
+    void beginBatch() {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            batch = new Batch();
+            mBatch.set(batch);
+        }
+        batch.depth++;
+    }
+
+    /**
+     * Notify all the uris requested by this thread since {@link #beginBatch()}, once the outermost batch has ended.
+     */
+    void endBatch() {
+        Batch batch = mBatch.get();
+        if (--batch.depth > 0) return;
+        mBatch.remove();
+        if (batch.uris.isEmpty()) return;
+        synchronized (this) {
+            mPendingUris.addAll(batch.uris);
+        }
+        dispatch();
+    }
+
+    private void dispatch() {
+        List<Uri> urisToNotify = new ArrayList<>();
+        synchronized (this) {
+            mDispatchScheduled = false;
+            for (Uri uri : mPendingUris) {
+                if (!hasPendingParent(uri)) urisToNotify.add(uri);
+            }
+            mPendingUris.clear();
+            mDeliveredCount += urisToNotify.size();
+            Log.v(TAG, "dispatch: requested " + mRequestedCount + ", delivered " + mDeliveredCount);
+        }
+        for (Uri uri : urisToNotify) {
+            Log.v(TAG, "dispatch: notify uri " + uri);
+            mContentResolver.notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * @return true if a uri which is a parent of the given uri is also pending.
+     */
+    private boolean hasPendingParent(Uri uri) {
+        List<String> pathSegments = uri.getPathSegments();
+        // Start with the root uri of the authority, without any path.
+        Uri.Builder parent = uri.buildUpon().path(null).query(null).fragment(null);
+        for (int i = 0; i < pathSegments.size(); i++) {
+            if (mPendingUris.contains(parent.build())) return true;
+            parent.appendPath(pathSegments.get(i));
+        }
+        return false;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import java.io.PrintWriter;
+
+/**
+ * Records how long the provider's operations take.
+ */
+interface QueryProfiler {
+
+    enum Operation {
+        QUERY,
+        INSERT,
+        BULK_INSERT,
+        UPDATE,
+        DELETE,
+        APPLY_BATCH,
+        CALL
+    }
+
+    /**
+     * Records nothing.
+     */
+    QueryProfiler NONE = new QueryProfiler() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void record(Operation operation, int uriType, String table, long durationNanos, long fillWindowNanos, int rowCount) {
+        }
+
+        @Override
+        public void dump(PrintWriter writer) {
+            writer.println("Query profiling is disabled");
+        }
+    };
+
+    /**
+     * @return false if this profiler records nothing, in which case the provider doesn't need to measure anything.
+     */
+    boolean isEnabled();
+
+    /**
+     * @param uriType         the type of the uri of the operation, as matched by the provider's uri matcher.
+     * @param table           the table or view of the operation, or the name of the method for a call.
+     * @param durationNanos   the time taken by the operation.
+     * @param fillWindowNanos for queries, the time taken to fill the first cursor window.  0 for other operations.
+     * @param rowCount        the number of rows read or written, or the number of operations in a batch.
+     */
+    void record(Operation operation, int uriType, String table, long durationNanos, long fillWindowNanos, int rowCount);
+
+    void dump(PrintWriter writer);
+}
@@ -20,9 +20,13 @@ package ca.rmen.android.scrumchatter.provider;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import ca.rmen.android.scrumchatter.BuildConfig;
 import ca.rmen.android.scrumchatter.Constants;
 import ca.rmen.android.scrumchatter.util.Log;
 import ca.rmen.android.scrumchatter.R;
@@ -34,7 +38,12 @@ public class ScrumChatterDatabase extends SQLiteOpenHelper {
     private static final String TAG = Constants.TAG + ScrumChatterDatabase.class.getSimpleName();
 
     public static final String DATABASE_NAME = "scrumchatter.db";
-    private static final int DATABASE_VERSION = 3;
+    static final int DATABASE_VERSION = 9;
+
+    /**
+     * The first version of the database in which the durations of the meeting_member table are in milliseconds.
+     */
+    static final int VERSION_DURATION_MILLIS = 6;
 
     private static final String TEMP_SUFFIX = "_temp";
 
@@ -160,8 +169,9 @@ public class ScrumChatterDatabase extends SQLiteOpenHelper {
 
     private static final String SQL_DROP_TABLE_MEETING = "DROP TABLE " + MeetingColumns.TABLE_NAME;
     private static final String SQL_DROP_TABLE_MEETING_TEMP = "DROP TABLE " + MeetingColumns.TABLE_NAME + TEMP_SUFFIX;
-    private static final String SQL_CREATE_VIEW_MEMBER_STATS = "CREATE VIEW "
-            + MemberStatsColumns.VIEW_NAME + " AS " + " SELECT "
+    // The select used by the member_stats view up to version 4: it aggregates the whole
+    // meeting_member table on every query.  We now only use it to check the member_stats_agg table.
+    private static final String SQL_SELECT_MEMBER_STATS_FULL_SCAN = " SELECT "
             + MemberColumns.TABLE_NAME + "." + MemberColumns._ID + " AS " + MemberColumns._ID + ", "
             + MemberColumns.TABLE_NAME + "." + MemberColumns.NAME + " AS " + MemberColumns.NAME + ", "
             + MemberColumns.TABLE_NAME + "." + MemberColumns.DELETED + " AS " + MemberColumns.DELETED + ", "
@@ -171,20 +181,222 @@ public class ScrumChatterDatabase extends SQLiteOpenHelper {
             + " FROM "
             + MemberColumns.TABLE_NAME + " LEFT OUTER JOIN "
             + MeetingMemberColumns.TABLE_NAME + " ON " + MemberColumns.TABLE_NAME + "." + MemberColumns._ID + " = " + MeetingMemberColumns.TABLE_NAME + "." + MeetingMemberColumns.MEMBER_ID
-            + " AND " + MeetingMemberColumns.TABLE_NAME + "." + MeetingMemberColumns.DURATION + "> 0"
+            + " AND " + MeetingMemberColumns.TABLE_NAME + "." + MeetingMemberColumns.DURATION + " >= " + MeetingMemberColumns.MIN_TALKED_DURATION
             + " GROUP BY "
             + MemberColumns.TABLE_NAME + "." + MemberColumns._ID + ", "
             + MemberColumns.TABLE_NAME + "." + MemberColumns.NAME + ", "
             + MemberColumns.TABLE_NAME + "." + MemberColumns.DELETED + ", "
             + MemberColumns.TABLE_NAME + "." + MemberColumns.TEAM_ID;
 
+    private static final String SQL_CREATE_VIEW_MEMBER_STATS_V3 = "CREATE VIEW "
+            + MemberStatsColumns.VIEW_NAME + " AS " + SQL_SELECT_MEMBER_STATS_FULL_SCAN;
+
+    /**
+     * One row per member who has spoken in at least one meeting. Only meeting_member rows of members who talked, with a
+     * duration of at least {@link MeetingMemberColumns#MIN_TALKED_DURATION}, are counted.
+     */
+    private static final String SQL_CREATE_TABLE_MEMBER_STATS_AGG = "CREATE TABLE IF NOT EXISTS "
+            + MemberStatsColumns.AGG_TABLE_NAME
+            + " ( "
+            + MemberStatsColumns.AGG_MEMBER_ID
+            + " INTEGER PRIMARY KEY, "
+            + MemberStatsColumns.AGG_COUNT
+            + " INTEGER NOT NULL DEFAULT 0, "
+            + MemberStatsColumns.AGG_SUM
+            + " INTEGER NOT NULL DEFAULT 0, "
+            + MemberStatsColumns.AGG_SUM_SQUARES
+            + " INTEGER NOT NULL DEFAULT 0, "
+            + " CONSTRAINT MEMBER_ID_FK FOREIGN KEY (" + MemberStatsColumns.AGG_MEMBER_ID + ") REFERENCES " + MemberColumns.TABLE_NAME + "(" + MemberColumns._ID + ") ON DELETE CASCADE"
+            + " );";
+
+    private static final String SQL_INSERT_MEMBER_STATS_AGG = "INSERT INTO "
+            + MemberStatsColumns.AGG_TABLE_NAME
+            + " SELECT "
+            + MeetingMemberColumns.MEMBER_ID + ", "
+            + "COUNT(*), "
+            + "SUM(" + MeetingMemberColumns.DURATION + "), "
+            + "SUM(" + MeetingMemberColumns.DURATION + " * " + MeetingMemberColumns.DURATION + ")"
+            + " FROM " + MeetingMemberColumns.TABLE_NAME
+            + " WHERE " + MeetingMemberColumns.SELECTION_TALKED
+            + " AND " + MeetingMemberColumns.MEMBER_ID + " IN (SELECT " + MemberColumns._ID + " FROM " + MemberColumns.TABLE_NAME + ")"
+            + " GROUP BY " + MeetingMemberColumns.MEMBER_ID;
+
+    private static final String SQL_DELETE_MEMBER_STATS_AGG = "DELETE FROM " + MemberStatsColumns.AGG_TABLE_NAME;
+
+    // Statements used inside the triggers to add or remove one duration to/from a member's stats.
+    private static final String SQL_TRIGGER_ADD_NEW_DURATION = " INSERT OR IGNORE INTO "
+            + MemberStatsColumns.AGG_TABLE_NAME + " (" + MemberStatsColumns.AGG_MEMBER_ID + ")"
+            + " SELECT NEW." + MeetingMemberColumns.MEMBER_ID + " WHERE NEW." + MeetingMemberColumns.DURATION + " >= " + MeetingMemberColumns.MIN_TALKED_DURATION + ";"
+            + " UPDATE " + MemberStatsColumns.AGG_TABLE_NAME + " SET "
+            + MemberStatsColumns.AGG_COUNT + " = " + MemberStatsColumns.AGG_COUNT + " + 1, "
+            + MemberStatsColumns.AGG_SUM + " = " + MemberStatsColumns.AGG_SUM + " + NEW." + MeetingMemberColumns.DURATION + ", "
+            + MemberStatsColumns.AGG_SUM_SQUARES + " = " + MemberStatsColumns.AGG_SUM_SQUARES
+            + " + NEW." + MeetingMemberColumns.DURATION + " * NEW." + MeetingMemberColumns.DURATION
+            + " WHERE " + MemberStatsColumns.AGG_MEMBER_ID + " = NEW." + MeetingMemberColumns.MEMBER_ID
+            + " AND NEW." + MeetingMemberColumns.DURATION + " >= " + MeetingMemberColumns.MIN_TALKED_DURATION + ";";
+
+    private static final String SQL_TRIGGER_REMOVE_OLD_DURATION = " UPDATE " + MemberStatsColumns.AGG_TABLE_NAME + " SET "
+            + MemberStatsColumns.AGG_COUNT + " = " + MemberStatsColumns.AGG_COUNT + " - 1, "
+            + MemberStatsColumns.AGG_SUM + " = " + MemberStatsColumns.AGG_SUM + " - OLD." + MeetingMemberColumns.DURATION + ", "
+            + MemberStatsColumns.AGG_SUM_SQUARES + " = " + MemberStatsColumns.AGG_SUM_SQUARES
+            + " - OLD." + MeetingMemberColumns.DURATION + " * OLD." + MeetingMemberColumns.DURATION
+            + " WHERE " + MemberStatsColumns.AGG_MEMBER_ID + " = OLD." + MeetingMemberColumns.MEMBER_ID
+            + " AND OLD." + MeetingMemberColumns.DURATION + " >= " + MeetingMemberColumns.MIN_TALKED_DURATION + ";";
+
+    private static final String SQL_CREATE_TRIGGER_MEMBER_STATS_INSERT = "CREATE TRIGGER IF NOT EXISTS "
+            + "member_stats_agg_insert AFTER INSERT ON " + MeetingMemberColumns.TABLE_NAME
+            + " BEGIN" + SQL_TRIGGER_ADD_NEW_DURATION + " END;";
+
+    private static final String SQL_CREATE_TRIGGER_MEMBER_STATS_DELETE = "CREATE TRIGGER IF NOT EXISTS "
+            + "member_stats_agg_delete AFTER DELETE ON " + MeetingMemberColumns.TABLE_NAME
+            + " BEGIN" + SQL_TRIGGER_REMOVE_OLD_DURATION + " END;";
+
+    private static final String SQL_DROP_TRIGGER_MEMBER_STATS_INSERT = "DROP TRIGGER IF EXISTS member_stats_agg_insert";
+
+    private static final String SQL_DROP_TRIGGER_MEMBER_STATS_DELETE = "DROP TRIGGER IF EXISTS member_stats_agg_delete";
+
+    private static final String SQL_DROP_TRIGGER_MEMBER_STATS_UPDATE = "DROP TRIGGER IF EXISTS member_stats_agg_update";
+
+    private static final String SQL_CREATE_TRIGGER_MEMBER_STATS_UPDATE = "CREATE TRIGGER IF NOT EXISTS "
+            + "member_stats_agg_update AFTER UPDATE OF "
+            + MeetingMemberColumns.MEMBER_ID + ", " + MeetingMemberColumns.DURATION + " ON " + MeetingMemberColumns.TABLE_NAME
+            + " BEGIN" + SQL_TRIGGER_REMOVE_OLD_DURATION + SQL_TRIGGER_ADD_NEW_DURATION + " END;";
+
+    /**
+     * Same columns as the version 3 view, but reading the precomputed stats instead of aggregating meeting_member.
+     */
+    private static final String SQL_CREATE_VIEW_MEMBER_STATS = "CREATE VIEW "
+            + MemberStatsColumns.VIEW_NAME + " AS " + " SELECT "
+            + MemberColumns.TABLE_NAME + "." + MemberColumns._ID + " AS " + MemberColumns._ID + ", "
+            + MemberColumns.TABLE_NAME + "." + MemberColumns.NAME + " AS " + MemberColumns.NAME + ", "
+            + MemberColumns.TABLE_NAME + "." + MemberColumns.DELETED + " AS " + MemberColumns.DELETED + ", "
+            + MemberColumns.TABLE_NAME + "." + MemberColumns.TEAM_ID + " AS " + MemberStatsColumns.TEAM_ID + ", "
+            + " CASE WHEN " + MemberStatsColumns.AGG_COUNT + " > 0 THEN "
+            + MemberStatsColumns.AGG_TABLE_NAME + "." + MemberStatsColumns.AGG_SUM + " END AS " + MemberStatsColumns.SUM_DURATION + ","
+            + " CASE WHEN " + MemberStatsColumns.AGG_COUNT + " > 0 THEN CAST("
+            + MemberStatsColumns.AGG_TABLE_NAME + "." + MemberStatsColumns.AGG_SUM + " AS REAL) / "
+            + MemberStatsColumns.AGG_TABLE_NAME + "." + MemberStatsColumns.AGG_COUNT + " END AS " + MemberStatsColumns.AVG_DURATION
+            + " FROM "
+            + MemberColumns.TABLE_NAME + " LEFT OUTER JOIN "
+            + MemberStatsColumns.AGG_TABLE_NAME + " ON " + MemberColumns.TABLE_NAME + "." + MemberColumns._ID + " = "
+            + MemberStatsColumns.AGG_TABLE_NAME + "." + MemberStatsColumns.AGG_MEMBER_ID;
+
+    /**
+     * Returns the members for which the member_stats view doesn't match a full aggregation of the meeting_member table.
+     */
+    private static final String SQL_SELECT_MEMBER_STATS_MISMATCHES = "SELECT scan." + MemberColumns._ID
+            + " FROM (" + SQL_SELECT_MEMBER_STATS_FULL_SCAN + ") AS scan"
+            + " JOIN " + MemberStatsColumns.VIEW_NAME + " AS agg ON scan." + MemberColumns._ID + " = agg." + MemberColumns._ID
+            + " WHERE IFNULL(scan." + MemberStatsColumns.SUM_DURATION + ", 0) != IFNULL(agg." + MemberStatsColumns.SUM_DURATION + ", 0)"
+            + " OR ABS(IFNULL(scan." + MemberStatsColumns.AVG_DURATION + ", 0) - IFNULL(agg." + MemberStatsColumns.AVG_DURATION + ", 0)) > 0.001";
+
     private static final String SQL_DROP_VIEW_MEMBER_STATS = "DROP VIEW " + MemberStatsColumns.VIEW_NAME;
 
+    // Indexes for the columns we filter and sort on: the team of a meeting or member,
+    // and the member of a meeting_member row (the UNIQUE constraint on meeting_member
+    // already gives us an index starting with the meeting id).
+    private static final String SQL_CREATE_INDEX_MEETING_TEAM_DATE = "CREATE INDEX IF NOT EXISTS "
+            + "meeting_team_date_idx ON "
+            + MeetingColumns.TABLE_NAME
+            + " ( "
+            + MeetingColumns.TEAM_ID + ", "
+            + MeetingColumns.MEETING_DATE
+            + " );";
+
+    private static final String SQL_CREATE_INDEX_MEMBER_TEAM_DELETED_NAME = "CREATE INDEX IF NOT EXISTS "
+            + "member_team_deleted_name_idx ON "
+            + MemberColumns.TABLE_NAME
+            + " ( "
+            + MemberColumns.TEAM_ID + ", "
+            + MemberColumns.DELETED + ", "
+            + MemberColumns.NAME
+            + " );";
+
+    private static final String SQL_CREATE_INDEX_MEETING_MEMBER_MEMBER_DURATION = "CREATE INDEX IF NOT EXISTS "
+            + "meeting_member_member_duration_idx ON "
+            + MeetingMemberColumns.TABLE_NAME
+            + " ( "
+            + MeetingMemberColumns.MEMBER_ID + ", "
+            + MeetingMemberColumns.DURATION
+            + " );";
+
+    private static final String SQL_CREATE_TABLE_SPEAKING_EVENT = "CREATE TABLE IF NOT EXISTS "
+            + SpeakingEventColumns.TABLE_NAME
+            + " ( "
+            + SpeakingEventColumns._ID
+            + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + SpeakingEventColumns.MEETING_ID
+            + " INTEGER NOT NULL, "
+            + SpeakingEventColumns.MEMBER_ID
+            + " INTEGER NOT NULL, "
+            + SpeakingEventColumns.EVENT_TYPE
+            + " INTEGER NOT NULL, "
+            + SpeakingEventColumns.EVENT_TIME
+            + " INTEGER NOT NULL"
+            + ", CONSTRAINT MEETING_ID_FK FOREIGN KEY (" + SpeakingEventColumns.MEETING_ID + ") REFERENCES "
+            + MeetingColumns.TABLE_NAME + "(" + MeetingColumns._ID + ") ON DELETE CASCADE"
+            + ", CONSTRAINT MEMBER_ID_FK FOREIGN KEY (" + SpeakingEventColumns.MEMBER_ID + ") REFERENCES "
+            + MemberColumns.TABLE_NAME + "(" + MemberColumns._ID + ") ON DELETE CASCADE"
+            + " );";
+
+    private static final String SQL_CREATE_INDEX_SPEAKING_EVENT_MEETING_TIME = "CREATE INDEX IF NOT EXISTS "
+            + "speaking_event_meeting_time_idx ON "
+            + SpeakingEventColumns.TABLE_NAME
+            + " ( "
+            + SpeakingEventColumns.MEETING_ID + ", "
+            + SpeakingEventColumns.EVENT_TIME
+            + " );";
+
+    /**
+     * Apply each new speaking event to the meeting_member row of its member: a start event sets the talk start time, if
+     * the member isn't talking, and a stop event adds the time since the talk start time to the duration.  The trigger
+     * doesn't create meeting_member rows: when all the tables are copied, the events are copied before the meeting_member
+     * rows, so the durations aren't counted twice.
+     */
+    private static final String SQL_CREATE_TRIGGER_SPEAKING_EVENT_INSERT = "CREATE TRIGGER IF NOT EXISTS "
+            + "speaking_event_insert AFTER INSERT ON " + SpeakingEventColumns.TABLE_NAME
+            + " BEGIN"
+            + " UPDATE " + MeetingMemberColumns.TABLE_NAME + " SET "
+            + MeetingMemberColumns.TALK_START_TIME + " = NEW." + SpeakingEventColumns.EVENT_TIME
+            + " WHERE NEW." + SpeakingEventColumns.EVENT_TYPE + " = " + SpeakingEventColumns.EventType.START.ordinal()
+            + " AND " + MeetingMemberColumns.MEETING_ID + " = NEW." + SpeakingEventColumns.MEETING_ID
+            + " AND " + MeetingMemberColumns.MEMBER_ID + " = NEW." + SpeakingEventColumns.MEMBER_ID
+            + " AND IFNULL(" + MeetingMemberColumns.TALK_START_TIME + ", 0) = 0;"
+            + " UPDATE " + MeetingMemberColumns.TABLE_NAME + " SET "
+            + MeetingMemberColumns.DURATION + " = IFNULL(" + MeetingMemberColumns.DURATION + ", 0)"
+            + " + MAX(0, NEW." + SpeakingEventColumns.EVENT_TIME + " - " + MeetingMemberColumns.TALK_START_TIME + "), "
+            + MeetingMemberColumns.TALK_START_TIME + " = 0"
+            + " WHERE NEW." + SpeakingEventColumns.EVENT_TYPE + " = " + SpeakingEventColumns.EventType.STOP.ordinal()
+            + " AND " + MeetingMemberColumns.MEETING_ID + " = NEW." + SpeakingEventColumns.MEETING_ID
+            + " AND " + MeetingMemberColumns.MEMBER_ID + " = NEW." + SpeakingEventColumns.MEMBER_ID
+            + " AND " + MeetingMemberColumns.TALK_START_TIME + " > 0;"
+            + " END;";
+
+    private static final String SQL_ALTER_TABLE_MEETING_V8 = "ALTER TABLE "
+            + MeetingColumns.TABLE_NAME
+            + " ADD COLUMN "
+            + MeetingColumns.HEARTBEAT_TIME + " INTEGER";
+
+    // Finds the meetings in progress at startup, to close the turns which were interrupted.
+    private static final String SQL_CREATE_INDEX_MEETING_STATE = "CREATE INDEX IF NOT EXISTS "
+            + "meeting_state_idx ON "
+            + MeetingColumns.TABLE_NAME
+            + " ( "
+            + MeetingColumns.STATE
+            + " );";
+
     private final Context mContext;
 
     ScrumChatterDatabase(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
         mContext = context;
+        // With write-ahead logging, the queries of the loaders can run on their own connections
+        // while a meeting is writing to the database, instead of waiting for the write to finish.
+        // Android checkpoints the log back into the database file every 100 pages: a meeting only
+        // writes a few pages per toggle, so the log stays small.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
     }
 
     @Override
@@ -194,7 +406,12 @@ public class ScrumChatterDatabase extends SQLiteOpenHelper {
         execSQL(db, SQL_CREATE_TABLE_MEETING_MEMBER);
         execSQL(db, SQL_CREATE_TABLE_MEMBER);
         execSQL(db, SQL_CREATE_TABLE_MEETING);
+        execSQL(db, SQL_CREATE_TABLE_MEMBER_STATS_AGG);
+        createMemberStatsTriggers(db);
         execSQL(db, SQL_CREATE_VIEW_MEMBER_STATS);
+        createIndexes(db);
+        createSpeakingEvents(db);
+        addMeetingHeartbeat(db);
         insertDefaultTeam(db);
     }
 
@@ -226,8 +443,61 @@ public class ScrumChatterDatabase extends SQLiteOpenHelper {
             execSQL(db, SQL_ALTER_TABLE_MEMBER_V3);
             // Recreate the views
             execSQL(db, SQL_DROP_VIEW_MEMBER_STATS);
+            execSQL(db, SQL_CREATE_VIEW_MEMBER_STATS_V3);
+        }
+
+        if (oldVersion < 4) {
+            createIndexes(db);
+        }
+
+        if (oldVersion < 5) {
+            // Replace the aggregate view with one reading from the member_stats_agg table,
+            // and fill this table from the existing meetings.
+            execSQL(db, SQL_CREATE_TABLE_MEMBER_STATS_AGG);
+            execSQL(db, SQL_INSERT_MEMBER_STATS_AGG);
+            createMemberStatsTriggers(db);
+            execSQL(db, SQL_DROP_VIEW_MEMBER_STATS);
             execSQL(db, SQL_CREATE_VIEW_MEMBER_STATS);
         }
+
+        if (oldVersion < VERSION_DURATION_MILLIS) {
+            // Convert the durations from seconds to milliseconds.  Rather than letting the update trigger
+            // change the stats of each row, we rebuild the stats once all the rows are converted.
+            execSQL(db, SQL_DROP_TRIGGER_MEMBER_STATS_UPDATE);
+            execSQL(db, getConvertDurationsToMillisSql(MeetingMemberColumns.TABLE_NAME));
+            execSQL(db, SQL_DELETE_MEMBER_STATS_AGG);
+            execSQL(db, SQL_INSERT_MEMBER_STATS_AGG);
+            createMemberStatsTriggers(db);
+        }
+
+        if (oldVersion < 7) {
+            // The journal only starts with the meetings of this version.
+            createSpeakingEvents(db);
+        }
+
+        if (oldVersion < 8) {
+            addMeetingHeartbeat(db);
+        }
+
+        if (oldVersion < 9) {
+            // The stats only count the members who talked for at least MIN_TALKED_DURATION, instead of
+            // any positive duration: recreate the triggers with the new threshold, and rebuild the stats.
+            execSQL(db, SQL_DROP_TRIGGER_MEMBER_STATS_INSERT);
+            execSQL(db, SQL_DROP_TRIGGER_MEMBER_STATS_DELETE);
+            execSQL(db, SQL_DROP_TRIGGER_MEMBER_STATS_UPDATE);
+            execSQL(db, SQL_DELETE_MEMBER_STATS_AGG);
+            execSQL(db, SQL_INSERT_MEMBER_STATS_AGG);
+            createMemberStatsTriggers(db);
+        }
+    }
+
+    /**
+     * @return the statement which converts the durations of the given table, with the columns of the meeting_member
+     * table, from seconds to milliseconds.
+     */
+    static String getConvertDurationsToMillisSql(String table) {
+        return "UPDATE " + table + " SET " + MeetingMemberColumns.DURATION + " = " + MeetingMemberColumns.DURATION + " * 1000"
+                + " WHERE " + MeetingMemberColumns.DURATION + " > 0";
     }
 
     @Override
@@ -236,9 +506,81 @@ public class ScrumChatterDatabase extends SQLiteOpenHelper {
         if (!db.isReadOnly()) {
             // Enable foreign key constraints
             db.execSQL("PRAGMA foreign_keys=ON;");
+            // Rows deleted by the "ON CONFLICT REPLACE" of meeting_member must
+            // go through the member_stats_agg delete trigger.
+            db.execSQL("PRAGMA recursive_triggers=ON;");
+            if (BuildConfig.DEBUG) checkMemberStats(db);
         }
     }
 
+    /**
+     * Copy all the pages of the write-ahead log into the database file, so that the database file alone
+     * contains all the data.  Does nothing if write-ahead logging isn't enabled.
+     */
+    void checkpoint() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return;
+        SQLiteDatabase db = getWritableDatabase();
+        if (db.isWriteAheadLoggingEnabled()) {
+            Log.v(TAG, "checkpoint");
+            DatabaseUtils.longForQuery(db, "PRAGMA wal_checkpoint(FULL)", null);
+        }
+    }
+
+    /**
+     * Compare the member_stats_agg table with a full aggregation of the meeting_member table.  If they don't match,
+     * log the members which differ and rebuild the member_stats_agg table.
+     *
+     * @return the number of members whose stats didn't match.
+     */
+    int checkMemberStats(SQLiteDatabase db) {
+        int mismatchCount = 0;
+        Cursor c = db.rawQuery(SQL_SELECT_MEMBER_STATS_MISMATCHES, null);
+        if (c != null) {
+            try {
+                while (c.moveToNext()) {
+                    Log.w(TAG, "checkMemberStats: stats for member " + c.getLong(0) + " are out of date");
+                    mismatchCount++;
+                }
+            } finally {
+                c.close();
+            }
+        }
+        if (mismatchCount > 0) {
+            db.beginTransaction();
+            try {
+                execSQL(db, SQL_DELETE_MEMBER_STATS_AGG);
+                execSQL(db, SQL_INSERT_MEMBER_STATS_AGG);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        return mismatchCount;
+    }
+
+    private void createMemberStatsTriggers(SQLiteDatabase db) {
+        execSQL(db, SQL_CREATE_TRIGGER_MEMBER_STATS_INSERT);
+        execSQL(db, SQL_CREATE_TRIGGER_MEMBER_STATS_DELETE);
+        execSQL(db, SQL_CREATE_TRIGGER_MEMBER_STATS_UPDATE);
+    }
+
+    private void createSpeakingEvents(SQLiteDatabase db) {
+        execSQL(db, SQL_CREATE_TABLE_SPEAKING_EVENT);
+        execSQL(db, SQL_CREATE_INDEX_SPEAKING_EVENT_MEETING_TIME);
+        execSQL(db, SQL_CREATE_TRIGGER_SPEAKING_EVENT_INSERT);
+    }
+
+    private void addMeetingHeartbeat(SQLiteDatabase db) {
+        execSQL(db, SQL_ALTER_TABLE_MEETING_V8);
+        execSQL(db, SQL_CREATE_INDEX_MEETING_STATE);
+    }
+
+    private void createIndexes(SQLiteDatabase db) {
+        execSQL(db, SQL_CREATE_INDEX_MEETING_TEAM_DATE);
+        execSQL(db, SQL_CREATE_INDEX_MEMBER_TEAM_DELETED_NAME);
+        execSQL(db, SQL_CREATE_INDEX_MEETING_MEMBER_MEMBER_DURATION);
+    }
+
     /**
      * Insert the default team
      */
@@ -26,20 +26,29 @@ import android.content.Context;
 import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteCursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.BaseColumns;
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
 
-import java.lang.reflect.Field;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
+import ca.rmen.android.scrumchatter.BuildConfig;
 import ca.rmen.android.scrumchatter.Constants;
 import ca.rmen.android.scrumchatter.util.Log;
 import io.reactivex.Observable;
@@ -60,8 +69,91 @@ public class ScrumChatterProvider extends ContentProvider {
     public static final String AUTHORITY = "ca.rmen.android.scrumchatter.provider";
     static final String CONTENT_URI_BASE = "content://" + AUTHORITY;
 
+    /**
+     * Method for {@link android.content.ContentResolver#call(Uri, String, String, Bundle)}: write any pending
+     * changes from the write-ahead log to the database file.
+     */
+    public static final String METHOD_CHECKPOINT = "checkpoint";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call(Uri, String, String, Bundle)}: start the chronometer of the member
+     * {@link #EXTRA_MEMBER_ID} in the meeting {@link #EXTRA_MEETING_ID}, at the time {@link #EXTRA_TIME}.
+     */
+    public static final String METHOD_START_TALKING = "start_talking";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call(Uri, String, String, Bundle)}: stop the chronometer of the member
+     * {@link #EXTRA_MEMBER_ID} in the meeting {@link #EXTRA_MEETING_ID}, at the time {@link #EXTRA_TIME}.
+     * If no member id is given, stop the chronometers of all the members talking in this meeting.
+     */
+    public static final String METHOD_STOP_TALKING = "stop_talking";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call(Uri, String, String, Bundle)}: if the member
+     * {@link #EXTRA_MEMBER_ID} is talking in the meeting {@link #EXTRA_MEETING_ID}, stop their chronometer.  Otherwise,
+     * stop the chronometers of the other members, and start theirs.  Both happen at the time {@link #EXTRA_TIME}, in a
+     * single transaction.  The result contains {@link #EXTRA_TALKING}.
+     */
+    public static final String METHOD_TOGGLE_TALKING = "toggle_talking";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call(Uri, String, String, Bundle)}: add speaking events to the
+     * meeting {@link #EXTRA_MEETING_ID}, in a single transaction.  The event at each index is for the member in
+     * {@link #EXTRA_MEMBER_IDS}, with the {@link SpeakingEventColumns.EventType} ordinal in {@link #EXTRA_EVENT_TYPES},
+     * at the time in {@link #EXTRA_TIMES}.
+     */
+    public static final String METHOD_APPEND_SPEAKING_EVENTS = "append_speaking_events";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call(Uri, String, String, Bundle)}: record that the meeting
+     * {@link #EXTRA_MEETING_ID} is still running at the time {@link #EXTRA_TIME}.  Observers aren't notified.
+     */
+    public static final String METHOD_HEARTBEAT = "heartbeat";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call(Uri, String, String, Bundle)}: stop the chronometers
+     * which are still running in the meetings in progress, of all the teams, at the last heartbeat of each meeting.
+     * Only call this before any meeting is run by this process.
+     */
+    public static final String METHOD_STOP_INTERRUPTED_TURNS = "stop_interrupted_turns";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call(Uri, String, String, Bundle)}: write the durations of the
+     * provider's operations to the file whose path is given in the arg.  They can also be read with
+     * <code>adb shell dumpsys activity provider ScrumChatterProvider</code>.
+     */
+    public static final String METHOD_DUMP_PROFILE = "dump_profile";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call(Uri, String, String, Bundle)}: replace all the data
+     * with the data of the database file whose path is given in the arg.
+     */
+    public static final String METHOD_IMPORT = "import";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call(Uri, String, String, Bundle)}: add the teams, members and
+     * meetings of the database file whose path is given in the arg, which we don't have yet.
+     */
+    public static final String METHOD_MERGE = "merge";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call(Uri, String, String, Bundle)}: return the
+     * {@link #EXTRA_DATA_VERSION}, which changes every time the data changes.
+     */
+    public static final String METHOD_DATA_VERSION = "data_version";
+
+    public static final String EXTRA_MEETING_ID = "meeting_id";
+    public static final String EXTRA_MEMBER_ID = "member_id";
+    public static final String EXTRA_TIME = "time";
+    public static final String EXTRA_DATA_VERSION = "data_version";
+    public static final String EXTRA_TALKING = "talking";
+    public static final String EXTRA_MEMBER_IDS = "member_ids";
+    public static final String EXTRA_EVENT_TYPES = "event_types";
+    public static final String EXTRA_TIMES = "times";
+
     private static final String QUERY_NOTIFY = "QUERY_NOTIFY"; // NO_UCD (use private)
     private static final String QUERY_GROUP_BY = "QUERY_GROUP_BY"; // NO_UCD (use private)
+    static final String QUERY_LIMIT = "QUERY_LIMIT";
 
     private static final int URI_TYPE_TEAM = 0;
     private static final int URI_TYPE_TEAM_ID = 1;
@@ -77,6 +169,28 @@ public class ScrumChatterProvider extends ContentProvider {
 
     private static final int URI_TYPE_MEMBER_STATS = 8;
 
+    // Data for a single team: team/#/meeting, team/#/meeting_member, team/#/member_stats
+    private static final int URI_TYPE_TEAM_MEETING = 9;
+    private static final int URI_TYPE_TEAM_MEETING_MEMBER = 10;
+    private static final int URI_TYPE_TEAM_MEMBER_STATS = 11;
+
+    // Read only: speaking_event, and speaking_event/# for the events of one meeting.
+    private static final int URI_TYPE_SPEAKING_EVENT = 12;
+    private static final int URI_TYPE_SPEAKING_EVENT_MEETING_ID = 13;
+
+    private static final long NO_TEAM = -1;
+
+    private static final String SQL_SELECT_MEETING_TEAM_ID = "SELECT " + MeetingColumns.TEAM_ID + " FROM " + MeetingColumns.TABLE_NAME
+            + " WHERE " + MeetingColumns._ID + "=?";
+    private static final String SQL_SELECT_TEAM_IDS = "SELECT " + TeamColumns._ID + " FROM " + TeamColumns.TABLE_NAME;
+    private static final String SQL_SELECT_MEMBER_TEAM_ID = "SELECT " + MemberColumns.TEAM_ID + " FROM " + MemberColumns.TABLE_NAME
+            + " WHERE " + MemberColumns._ID + "=?";
+
+    /**
+     * Changes requested within this time are notified together.
+     */
+    private static final long NOTIFICATION_WINDOW_MS = 50;
+
     private static final UriMatcher URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
 
     static {
@@ -94,10 +208,24 @@ public class ScrumChatterProvider extends ContentProvider {
 
         URI_MATCHER.addURI(AUTHORITY, MemberStatsColumns.VIEW_NAME, URI_TYPE_MEMBER_STATS);
 
+        URI_MATCHER.addURI(AUTHORITY, TeamColumns.TABLE_NAME + "/#/" + MeetingColumns.TABLE_NAME, URI_TYPE_TEAM_MEETING);
+        URI_MATCHER.addURI(AUTHORITY, TeamColumns.TABLE_NAME + "/#/" + MeetingMemberColumns.TABLE_NAME, URI_TYPE_TEAM_MEETING_MEMBER);
+        URI_MATCHER.addURI(AUTHORITY, TeamColumns.TABLE_NAME + "/#/" + MemberStatsColumns.VIEW_NAME, URI_TYPE_TEAM_MEMBER_STATS);
+
+        URI_MATCHER.addURI(AUTHORITY, SpeakingEventColumns.TABLE_NAME, URI_TYPE_SPEAKING_EVENT);
+        URI_MATCHER.addURI(AUTHORITY, SpeakingEventColumns.TABLE_NAME + "/#", URI_TYPE_SPEAKING_EVENT_MEETING_ID);
+
     }
 
     private ScrumChatterDatabase mScrumChatterDatabase;
+    private final MeetingMemberStatements mMeetingMemberStatements = new MeetingMemberStatements();
+    private NotificationCoalescer mNotificationCoalescer;
+    private QueryProfiler mQueryProfiler;
     private Context mContext;
+    // Incremented after each change to the data.  It starts again at 0 when the provider is created, so
+    // it's returned along with the creation time of the provider.
+    private final AtomicLong mDataVersion = new AtomicLong();
+    private long mCreationTime;
 
     @Override
     public boolean onCreate() {
@@ -107,6 +235,9 @@ public class ScrumChatterProvider extends ContentProvider {
         // though this isn't really the case (getContext() can only be null before
         // onCreate() is called).
         mContext = getContext();
+        mNotificationCoalescer = new NotificationCoalescer(mContext.getContentResolver(), NOTIFICATION_WINDOW_MS);
+        mQueryProfiler = BuildConfig.DEBUG ? new HistogramQueryProfiler() : QueryProfiler.NONE;
+        mCreationTime = System.currentTimeMillis();
         return true;
     }
 
@@ -137,6 +268,17 @@ public class ScrumChatterProvider extends ContentProvider {
             case URI_TYPE_MEMBER_STATS:
                 return TYPE_CURSOR_ITEM + MemberStatsColumns.VIEW_NAME;
 
+            case URI_TYPE_TEAM_MEETING:
+                return TYPE_CURSOR_DIR + MeetingColumns.TABLE_NAME;
+            case URI_TYPE_TEAM_MEETING_MEMBER:
+                return TYPE_CURSOR_DIR + MeetingMemberColumns.TABLE_NAME;
+            case URI_TYPE_TEAM_MEMBER_STATS:
+                return TYPE_CURSOR_ITEM + MemberStatsColumns.VIEW_NAME;
+
+            case URI_TYPE_SPEAKING_EVENT:
+            case URI_TYPE_SPEAKING_EVENT_MEETING_ID:
+                return TYPE_CURSOR_DIR + SpeakingEventColumns.TABLE_NAME;
+
         }
         return null;
     }
@@ -144,36 +286,45 @@ public class ScrumChatterProvider extends ContentProvider {
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
         Log.d(TAG, "insert uri=" + uri + " values=" + values);
+        final long startNanos = System.nanoTime();
         final String table = uri.getLastPathSegment();
         SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
-        final long rowId = db.insert(table, null, values);
+        long rowId;
+        long teamId = NO_TEAM;
         // When we insert a row into the meeting table, we have to add
         // all existing members to this meeting. To do this, we create
-        // one row for each member into the meeting_member table for this team.
+        // one row for each member into the meeting_member table for this team,
+        // with a single statement, in the same transaction as the meeting.
         if (table.equals(MeetingColumns.TABLE_NAME)) {
-            int teamId = values.getAsInteger(MeetingColumns.TEAM_ID);
-            Cursor members = db.query(MemberColumns.TABLE_NAME, new String[] { MemberColumns._ID }, MemberColumns.TEAM_ID + "=? AND " + MemberColumns.DELETED
-                    + "=0 ", new String[] { String.valueOf(teamId) }, null, null, null);
-            if (members != null) {
-                ContentValues[] newMeetingMembers = new ContentValues[members.getCount()];
-                if (members.moveToFirst()) {
-                    int i = 0;
-                    do {
-                        long memberId = members.getLong(0);
-                        values = new ContentValues();
-                        values.put(MeetingMemberColumns.MEMBER_ID, memberId);
-                        values.put(MeetingMemberColumns.MEETING_ID, rowId);
-                        values.put(MeetingMemberColumns.DURATION, 0L);
-                        newMeetingMembers[i++] = values;
-                    } while (members.moveToNext());
+            teamId = values.getAsLong(MeetingColumns.TEAM_ID);
+            // A meeting without members is useless, but in a batch (ex: an import), we
+            // can't roll back the meeting without rolling back the whole batch.
+            final boolean isInBatch = db.inTransaction();
+            db.beginTransaction();
+            try {
+                rowId = db.insert(table, null, values);
+                if (rowId != -1) {
+                    int memberCount = mMeetingMemberStatements.insertTeamMembers(db, rowId, teamId);
+                    if (memberCount == 0 && !isInBatch) {
+                        Log.v(TAG, "Team " + teamId + " has no members: not creating the meeting");
+                        profile(QueryProfiler.Operation.INSERT, uri, startNanos, 0);
+                        return null;
+                    }
                 }
-                bulkInsert(MeetingMemberColumns.CONTENT_URI, newMeetingMembers);
-                members.close();
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } else {
+            rowId = db.insert(table, null, values);
+            if (table.equals(MemberColumns.TABLE_NAME)) {
+                teamId = values.getAsLong(MemberColumns.TEAM_ID);
             }
         }
-        if (rowId != -1 && !db.inTransaction()) notifyChange(uri);
+        if (rowId != -1 && !db.inTransaction()) notifyChange(uri, teamId);
 
         Uri result = uri.buildUpon().appendEncodedPath(String.valueOf(rowId)).build();
+        profile(QueryProfiler.Operation.INSERT, uri, startNanos, rowId == -1 ? 0 : 1);
         Log.v(TAG, "Created row with uri " + result);
         return result;
     }
@@ -181,6 +332,7 @@ public class ScrumChatterProvider extends ContentProvider {
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
         Log.d(TAG, "bulkInsert uri=" + uri + " values.length=" + values.length);
+        final long startNanos = System.nanoTime();
         final String table = uri.getLastPathSegment();
         final SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
         int res = 0;
@@ -197,36 +349,45 @@ public class ScrumChatterProvider extends ContentProvider {
             db.endTransaction();
         }
         if (res != 0 && !db.inTransaction()) notifyChange(uri);
+        profile(QueryProfiler.Operation.BULK_INSERT, uri, startNanos, res);
 
         return res;
     }
 
     @Override
     public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        final long startNanos = System.nanoTime();
         StatementParams params = getStatementParams(uri, selection);
         Log.d(TAG, "update uri=" + uri + " values=" + values + " selection=" + selection + ", selectionArgs = " + Arrays.toString(selectionArgs));
         SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
         final int res = db.update(params.table, values, params.selection, selectionArgs);
-        if (res != 0 && !db.inTransaction()) notifyChange(uri);
+        if (res != 0 && !db.inTransaction()) notifyChange(uri, getTeamId(db, uri));
+        profile(QueryProfiler.Operation.UPDATE, uri, startNanos, res);
         return res;
     }
 
     @Override
     public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
         Log.d(TAG, "delete uri=" + uri + " selection=" + selection);
+        final long startNanos = System.nanoTime();
         StatementParams params = getStatementParams(uri, selection);
         SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
+        // Read the team before the row disappears.
+        final long teamId = db.inTransaction() ? NO_TEAM : getTeamId(db, uri);
         final int res = db.delete(params.table, params.selection, selectionArgs);
-        if (res != 0 && !db.inTransaction()) notifyChange(uri);
+        if (res != 0 && !db.inTransaction()) notifyChange(uri, teamId);
+        profile(QueryProfiler.Operation.DELETE, uri, startNanos, res);
         return res;
     }
 
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         final String groupBy = uri.getQueryParameter(QUERY_GROUP_BY);
+        final String limit = uri.getQueryParameter(QUERY_LIMIT);
         Log.d(TAG,
                 "query uri=" + uri + ", projection = " + Arrays.toString(projection) + " selection=" + selection + " selectionArgs = "
-                        + Arrays.toString(selectionArgs) + " sortOrder=" + sortOrder + " groupBy=" + groupBy);
+                        + Arrays.toString(selectionArgs) + " sortOrder=" + sortOrder + " groupBy=" + groupBy + " limit=" + limit);
+        final long startNanos = System.nanoTime();
         final QueryParams queryParams = getQueryParams(uri, selection);
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
         qb.setTables(queryParams.table);
@@ -234,8 +395,15 @@ public class ScrumChatterProvider extends ContentProvider {
         final Cursor res = qb.query(
                 mScrumChatterDatabase.getReadableDatabase(), projection,
                 queryParams.selection, selectionArgs, groupBy, null,
-                sortOrder == null ? queryParams.orderBy : sortOrder);
-        logCursor(res, selectionArgs);
+                sortOrder == null ? queryParams.orderBy : sortOrder, limit);
+        if (mQueryProfiler.isEnabled()) {
+            // The query is only run when the cursor fills its first window.
+            final long queryEndNanos = System.nanoTime();
+            final int count = res.getCount();
+            final long fillWindowNanos = System.nanoTime() - queryEndNanos;
+            mQueryProfiler.record(QueryProfiler.Operation.QUERY, URI_MATCHER.match(uri), getProfileLabel(uri),
+                    queryEndNanos - startNanos, fillWindowNanos, count);
+        }
         res.setNotificationUri(mContext.getContentResolver(), uri);
 
         return res;
@@ -243,14 +411,16 @@ public class ScrumChatterProvider extends ContentProvider {
 
     /**
      * Perform all operations in a single transaction and notify all relevant URIs at the end. The {@link MemberStatsColumns#CONTENT_URI} uri is always notified
-     * for a successful transaction.
+     * for a successful transaction.  The notifications are sent once the transaction has ended.
      * 
      * @see android.content.ContentProvider#applyBatch(java.util.ArrayList)
      */
     @Override
     @NonNull public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
         Log.v(TAG, "applyBatch: " + operations);
+        final long startNanos = System.nanoTime();
         SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
+        mNotificationCoalescer.beginBatch();
         db.beginTransaction();
         try {
             ContentProviderResult[] result = super.applyBatch(operations);
@@ -264,64 +434,312 @@ public class ScrumChatterProvider extends ContentProvider {
             return result;
         } finally {
             db.endTransaction();
+            // The uris were notified before the end of the transaction: change the data version again, now that
+            // the changes can be read.
+            mDataVersion.incrementAndGet();
+            mNotificationCoalescer.endBatch();
+            if (mQueryProfiler.isEnabled()) {
+                mQueryProfiler.record(QueryProfiler.Operation.APPLY_BATCH, UriMatcher.NO_MATCH, "batch", System.nanoTime() - startNanos, 0, operations.size());
+            }
         }
     }
 
-    /**
-     * Log the query of the given cursor.
-     */
-    private void logCursor(Cursor cursor, String[] selectionArgs) {
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        Log.v(TAG, "call " + method);
+        if (METHOD_CHECKPOINT.equals(method)) {
+            mScrumChatterDatabase.checkpoint();
+            return null;
+        }
+        if (METHOD_DUMP_PROFILE.equals(method)) {
+            dumpProfile(new File(arg));
+            return null;
+        }
+        if (METHOD_DATA_VERSION.equals(method)) {
+            Bundle result = new Bundle(1);
+            result.putString(EXTRA_DATA_VERSION, mCreationTime + "." + mDataVersion.get());
+            return result;
+        }
+        if (METHOD_IMPORT.equals(method)) {
+            final long startNanos = System.nanoTime();
+            int rowCount = DBImport.copyDatabase(mScrumChatterDatabase.getWritableDatabase(), new File(arg));
+            // Everything changed: notify all the uris of the provider at once.
+            mDataVersion.incrementAndGet();
+            mNotificationCoalescer.notifyChange(Uri.parse(CONTENT_URI_BASE));
+            if (mQueryProfiler.isEnabled()) {
+                mQueryProfiler.record(QueryProfiler.Operation.CALL, UriMatcher.NO_MATCH, method, System.nanoTime() - startNanos, 0, rowCount);
+            }
+            return null;
+        }
+        if (METHOD_MERGE.equals(method)) {
+            final long startNanos = System.nanoTime();
+            Bundle result = DBImport.mergeDatabase(mScrumChatterDatabase.getWritableDatabase(), new File(arg));
+            int rowsWritten = result.getInt(DBImport.EXTRA_ROWS_WRITTEN);
+            if (rowsWritten > 0) {
+                mDataVersion.incrementAndGet();
+                mNotificationCoalescer.notifyChange(Uri.parse(CONTENT_URI_BASE));
+            }
+            if (mQueryProfiler.isEnabled()) {
+                mQueryProfiler.record(QueryProfiler.Operation.CALL, UriMatcher.NO_MATCH, method, System.nanoTime() - startNanos, 0, rowsWritten);
+            }
+            return result;
+        }
+        if (METHOD_START_TALKING.equals(method) || METHOD_STOP_TALKING.equals(method)) {
+            final long startNanos = System.nanoTime();
+            long meetingId = extras.getLong(EXTRA_MEETING_ID);
+            long time = extras.getLong(EXTRA_TIME);
+            SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
+            final int res;
+            if (METHOD_START_TALKING.equals(method)) {
+                res = mMeetingMemberStatements.startTalking(db, meetingId, extras.getLong(EXTRA_MEMBER_ID), time);
+            } else if (extras.containsKey(EXTRA_MEMBER_ID)) {
+                res = mMeetingMemberStatements.stopTalking(db, meetingId, extras.getLong(EXTRA_MEMBER_ID), time);
+            } else {
+                res = mMeetingMemberStatements.stopTalking(db, meetingId, time);
+            }
+            if (res != 0 && !db.inTransaction()) notifyMeetingMemberChange(db, meetingId);
+            if (mQueryProfiler.isEnabled()) {
+                mQueryProfiler.record(QueryProfiler.Operation.CALL, UriMatcher.NO_MATCH, method, System.nanoTime() - startNanos, 0, res);
+            }
+            return null;
+        }
+        if (METHOD_TOGGLE_TALKING.equals(method)) {
+            final long startNanos = System.nanoTime();
+            long meetingId = extras.getLong(EXTRA_MEETING_ID);
+            long memberId = extras.getLong(EXTRA_MEMBER_ID);
+            long time = extras.getLong(EXTRA_TIME);
+            SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
+            int res;
+            boolean isTalking;
+            db.beginTransaction();
+            try {
+                if (mMeetingMemberStatements.isTalking(db, meetingId, memberId)) {
+                    res = mMeetingMemberStatements.stopTalking(db, meetingId, memberId, time);
+                    isTalking = false;
+                } else {
+                    res = mMeetingMemberStatements.stopTalking(db, meetingId, time);
+                    int started = mMeetingMemberStatements.startTalking(db, meetingId, memberId, time);
+                    res += started;
+                    isTalking = started > 0;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (res != 0 && !db.inTransaction()) notifyMeetingMemberChange(db, meetingId);
+            if (mQueryProfiler.isEnabled()) {
+                mQueryProfiler.record(QueryProfiler.Operation.CALL, UriMatcher.NO_MATCH, method, System.nanoTime() - startNanos, 0, res);
+            }
+            Bundle result = new Bundle(1);
+            result.putBoolean(EXTRA_TALKING, isTalking);
+            return result;
+        }
+        if (METHOD_APPEND_SPEAKING_EVENTS.equals(method)) {
+            final long startNanos = System.nanoTime();
+            long meetingId = extras.getLong(EXTRA_MEETING_ID);
+            long[] memberIds = extras.getLongArray(EXTRA_MEMBER_IDS);
+            int[] eventTypes = extras.getIntArray(EXTRA_EVENT_TYPES);
+            long[] times = extras.getLongArray(EXTRA_TIMES);
+            if (memberIds == null || eventTypes == null || times == null) return null;
+            SpeakingEventColumns.EventType[] allEventTypes = SpeakingEventColumns.EventType.values();
+            SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
+            int res = 0;
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < memberIds.length; i++) {
+                    mMeetingMemberStatements.appendSpeakingEvent(db, meetingId, memberIds[i], allEventTypes[eventTypes[i]], times[i]);
+                    res++;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (res != 0 && !db.inTransaction()) notifyMeetingMemberChange(db, meetingId);
+            if (mQueryProfiler.isEnabled()) {
+                mQueryProfiler.record(QueryProfiler.Operation.CALL, UriMatcher.NO_MATCH, method, System.nanoTime() - startNanos, 0, res);
+            }
+            return null;
+        }
+        if (METHOD_HEARTBEAT.equals(method)) {
+            final long startNanos = System.nanoTime();
+            SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
+            // Nobody displays the heartbeat: don't notify the observers, or change the data version.
+            mMeetingMemberStatements.updateHeartbeat(db, extras.getLong(EXTRA_MEETING_ID), extras.getLong(EXTRA_TIME));
+            if (mQueryProfiler.isEnabled()) {
+                mQueryProfiler.record(QueryProfiler.Operation.CALL, UriMatcher.NO_MATCH, method, System.nanoTime() - startNanos, 0, 1);
+            }
+            return null;
+        }
+        if (METHOD_STOP_INTERRUPTED_TURNS.equals(method)) {
+            final long startNanos = System.nanoTime();
+            SQLiteDatabase db = mScrumChatterDatabase.getWritableDatabase();
+            int res = mMeetingMemberStatements.stopInterruptedTurns(db);
+            if (res != 0 && !db.inTransaction()) {
+                // The meetings can be in any team.
+                mDataVersion.incrementAndGet();
+                mNotificationCoalescer.notifyChange(Uri.parse(CONTENT_URI_BASE));
+            }
+            if (mQueryProfiler.isEnabled()) {
+                mQueryProfiler.record(QueryProfiler.Operation.CALL, UriMatcher.NO_MATCH, method, System.nanoTime() - startNanos, 0, res);
+            }
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mQueryProfiler.dump(writer);
+    }
+
+    private void dumpProfile(File file) {
+        PrintWriter writer = null;
         try {
-            Field queryField = SQLiteCursor.class.getDeclaredField("mQuery");
-            queryField.setAccessible(true);
-            SQLiteQuery sqliteQuery = (SQLiteQuery) queryField.get(cursor);
-            Log.v(TAG, sqliteQuery.toString() + ": " + Arrays.toString(selectionArgs));
-        } catch (Exception e) {
-            Log.v(TAG, e.getMessage(), e);
+            writer = new PrintWriter(new FileWriter(file));
+            mQueryProfiler.dump(writer);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't write the profile to " + file + ": " + e.getMessage(), e);
+        } finally {
+            if (writer != null) writer.close();
         }
     }
 
+    private void profile(QueryProfiler.Operation operation, Uri uri, long startNanos, int rowCount) {
+        if (mQueryProfiler.isEnabled()) {
+            mQueryProfiler.record(operation, URI_MATCHER.match(uri), getProfileLabel(uri), System.nanoTime() - startNanos, 0, rowCount);
+        }
+    }
+
+    /**
+     * @return the name of the table or view of the given uri, to group the durations in the profile.
+     */
+    private String getProfileLabel(Uri uri) {
+        String type = getType(uri);
+        if (type == null) return uri.getPath();
+        return type.substring(type.indexOf('/') + 1);
+    }
+
     private void notifyChange(Uri uri) {
+        notifyChange(uri, NO_TEAM);
+    }
+
+    /**
+     * Notify the observers of the members, and of the speaking events, of the given meeting.
+     */
+    private void notifyMeetingMemberChange(SQLiteDatabase db, long meetingId) {
+        Uri meetingMemberUri = Uri.withAppendedPath(MeetingMemberColumns.CONTENT_URI, String.valueOf(meetingId));
+        notifyChange(meetingMemberUri, getTeamId(db, meetingMemberUri));
+        mNotificationCoalescer.notifyChange(Uri.withAppendedPath(SpeakingEventColumns.CONTENT_URI, String.valueOf(meetingId)));
+    }
+
+    /**
+     * @param teamId the team in which the data changed, if we know it.  If the team is known, we only notify the observers
+     *               of this team.  Otherwise we notify the observers of all teams.
+     */
+    private void notifyChange(Uri uri, long teamId) {
+        // The data changed, even if the observers aren't notified.
+        mDataVersion.incrementAndGet();
         String notify = uri.getQueryParameter(QUERY_NOTIFY);
-        Log.v(TAG, "notifyChange: uri = " + uri + ", notify = " + notify);
+        Log.v(TAG, "notifyChange: uri = " + uri + ", teamId = " + teamId + ", notify = " + notify);
         if (notify == null || "true".equals(notify)) {
-            // Notify the uri which changed.
             Set<Uri> urisToNotify = new HashSet<>();
-            urisToNotify.add(uri);
+            int matchedId = URI_MATCHER.match(uri);
 
-            // Whether a meeting, meeting_member, or meeting table was
-            // modified, update the member_stats view.
-            urisToNotify.add(MemberStatsColumns.CONTENT_URI);
+            if (teamId == NO_TEAM) {
+                // Notify the uri which changed.
+                urisToNotify.add(uri);
 
-            // Notify other uris if they depend on the given uri which just
-            // changed.
-            int matchedId = URI_MATCHER.match(uri);
-            // If a member changed, notify the the meeting_member uri.
-            if (matchedId == URI_TYPE_MEMBER_ID || matchedId == URI_TYPE_MEMBER) {
-                urisToNotify.add(MeetingMemberColumns.CONTENT_URI);
-            }
-            // If a meeting changed, notify the meeting_member uri, including
-            // the meeting id in the uri to notify,
-            // if the given uri is for a specific meeting.
-            else if (matchedId == URI_TYPE_MEETING_ID || matchedId == URI_TYPE_MEETING) {
-                Uri meetingMemberUriToNotify = MeetingMemberColumns.CONTENT_URI;
-                // A specific meeting changed, notify meeting_member for that
-                // meeting.
-                if (matchedId == URI_TYPE_MEETING_ID) {
-                    String meetingId = uri.getLastPathSegment();
-                    meetingMemberUriToNotify = meetingMemberUriToNotify.buildUpon().appendPath(meetingId).build();
+                // Whether a meeting, meeting_member, or meeting table was
+                // modified, update the member_stats view.
+                urisToNotify.add(MemberStatsColumns.CONTENT_URI);
+
+                // The change may concern any team: notify the observers of the uris of each team.  The team list
+                // itself is only notified when the team table changes.
+                urisToNotify.addAll(getTeamUris());
+                if (matchedId == URI_TYPE_TEAM || matchedId == URI_TYPE_TEAM_ID) urisToNotify.add(TeamColumns.CONTENT_URI);
+
+                // Notify other uris if they depend on the given uri which just
+                // changed.
+                // If a member changed, notify the the meeting_member uri.
+                if (matchedId == URI_TYPE_MEMBER_ID || matchedId == URI_TYPE_MEMBER) {
+                    urisToNotify.add(MeetingMemberColumns.CONTENT_URI);
+                }
+                // If a meeting changed, notify the meeting_member uri, including
+                // the meeting id in the uri to notify,
+                // if the given uri is for a specific meeting.
+                else if (matchedId == URI_TYPE_MEETING_ID || matchedId == URI_TYPE_MEETING) {
+                    Uri meetingMemberUriToNotify = MeetingMemberColumns.CONTENT_URI;
+                    // A specific meeting changed, notify meeting_member for that
+                    // meeting.
+                    if (matchedId == URI_TYPE_MEETING_ID) {
+                        String meetingId = uri.getLastPathSegment();
+                        meetingMemberUriToNotify = meetingMemberUriToNotify.buildUpon().appendPath(meetingId).build();
+                    }
+                    urisToNotify.add(meetingMemberUriToNotify);
+                }
+            } else {
+                // Notify the uri which changed, if it's for a single meeting or member.
+                // The uris of whole tables would wake up the observers of all teams.
+                if (matchedId == URI_TYPE_MEETING_ID || matchedId == URI_TYPE_MEMBER_ID || matchedId == URI_TYPE_MEETING_MEMBER_ID) {
+                    urisToNotify.add(uri);
+                }
+
+                // Any change in a team can change the durations of its members and meetings.
+                urisToNotify.add(MemberStatsColumns.getTeamContentUri(teamId));
+                urisToNotify.add(MeetingMemberColumns.getTeamContentUri(teamId));
+
+                if (matchedId == URI_TYPE_MEETING_ID || matchedId == URI_TYPE_MEETING) {
+                    urisToNotify.add(MeetingColumns.getTeamContentUri(teamId));
+                    if (matchedId == URI_TYPE_MEETING_ID) {
+                        urisToNotify.add(Uri.withAppendedPath(MeetingMemberColumns.CONTENT_URI, uri.getLastPathSegment()));
+                    }
+                }
+                // A member is part of all the meetings of the team: notify the meeting_member uri, for any open meeting.
+                else if (matchedId == URI_TYPE_MEMBER_ID || matchedId == URI_TYPE_MEMBER) {
+                    urisToNotify.add(MeetingMemberColumns.CONTENT_URI);
                 }
-                urisToNotify.add(meetingMemberUriToNotify);
             }
 
-            // Notify all the relevant uris.
+            // Notify all the relevant uris.  The coalescer will send them after a short delay,
+            // along with any other uris which change during this time.
             for (Uri uriToNotify : urisToNotify) {
-                Log.v(TAG, "notifyChange: notify uri " + uriToNotify);
-                mContext.getContentResolver().notifyChange(uriToNotify, null);
+                mNotificationCoalescer.notifyChange(uriToNotify);
             }
         }
     }
 
+    /**
+     * @return the uri of each team.  Notifying them notifies the observers of the team-scoped uris (meetings, meeting
+     * members and member stats of a team), but not the observers of the team list.
+     */
+    private List<Uri> getTeamUris() {
+        List<Uri> teamUris = new ArrayList<>();
+        Cursor c = mScrumChatterDatabase.getReadableDatabase().rawQuery(SQL_SELECT_TEAM_IDS, null);
+        try {
+            while (c.moveToNext()) teamUris.add(Uri.withAppendedPath(TeamColumns.CONTENT_URI, String.valueOf(c.getLong(0))));
+        } finally {
+            c.close();
+        }
+        return teamUris;
+    }
+
+    /**
+     * @return the team of the meeting, member, or meeting_member (for a given meeting) in the given uri, or
+     * {@link #NO_TEAM} if the uri isn't for a single one of these or if the row doesn't exist.
+     */
+    private long getTeamId(SQLiteDatabase db, Uri uri) {
+        int matchedId = URI_MATCHER.match(uri);
+        final String sql;
+        if (matchedId == URI_TYPE_MEETING_ID || matchedId == URI_TYPE_MEETING_MEMBER_ID) sql = SQL_SELECT_MEETING_TEAM_ID;
+        else if (matchedId == URI_TYPE_MEMBER_ID) sql = SQL_SELECT_MEMBER_TEAM_ID;
+        else return NO_TEAM;
+        try {
+            return DatabaseUtils.longForQuery(db, sql, new String[]{uri.getLastPathSegment()});
+        } catch (SQLiteDoneException e) {
+            return NO_TEAM;
+        }
+    }
+
     /**
      * To be used for updates and deletes
      */
@@ -406,7 +824,7 @@ public class ScrumChatterProvider extends ContentProvider {
      * @return the full QueryParams based on the Uri and selection provided by
      *         the user of the ContentProvider.
      */
-    private QueryParams getQueryParams(Uri uri, String selection) {
+    private static QueryParams getQueryParams(Uri uri, String selection) {
         QueryParams res = new QueryParams();
         String id = null;
         int matchedId = URI_MATCHER.match(uri);
@@ -418,11 +836,7 @@ public class ScrumChatterProvider extends ContentProvider {
         // this will be used as the meeting id.
             case URI_TYPE_MEETING_MEMBER:
             case URI_TYPE_MEETING_MEMBER_ID:
-                // The join contains the member, meeting_member, and meeting tables.
-                res.table = MemberColumns.TABLE_NAME + " LEFT OUTER JOIN " + MeetingMemberColumns.TABLE_NAME + " ON " + MemberColumns.TABLE_NAME + "."
-                        + MemberColumns._ID + " = " + MeetingMemberColumns.TABLE_NAME + "." + MeetingMemberColumns.MEMBER_ID + " LEFT OUTER JOIN "
-                        + MeetingColumns.TABLE_NAME + " ON " + MeetingColumns.TABLE_NAME + "." + MeetingColumns._ID + " = " + MeetingMemberColumns.TABLE_NAME
-                        + "." + MeetingMemberColumns.MEETING_ID;
+                res.table = getMeetingMemberJoin();
 
                 // If a specific meeting is specified, append a selection
                 // on the meeting id to the end of the existing selection
@@ -460,6 +874,33 @@ public class ScrumChatterProvider extends ContentProvider {
                 res.orderBy = MemberStatsColumns.DEFAULT_ORDER;
                 break;
 
+            // For the uris of a single team, add the team id to the selection.
+            case URI_TYPE_TEAM_MEETING:
+                res.table = MeetingColumns.TABLE_NAME;
+                res.orderBy = MeetingColumns.DEFAULT_ORDER;
+                res.selection = appendTeamSelection(MeetingColumns.TEAM_ID, uri, selection);
+                break;
+
+            case URI_TYPE_TEAM_MEETING_MEMBER:
+                res.table = getMeetingMemberJoin();
+                res.orderBy = MemberColumns.NAME;
+                res.selection = appendTeamSelection(MeetingColumns.TEAM_ID, uri, selection);
+                break;
+
+            case URI_TYPE_TEAM_MEMBER_STATS:
+                res.table = MemberStatsColumns.VIEW_NAME;
+                res.orderBy = MemberStatsColumns.DEFAULT_ORDER;
+                res.selection = appendTeamSelection(MemberStatsColumns.TEAM_ID, uri, selection);
+                break;
+
+            case URI_TYPE_SPEAKING_EVENT_MEETING_ID:
+                res.selection = SpeakingEventColumns.MEETING_ID + "=" + uri.getLastPathSegment();
+                if (selection != null) res.selection = selection + " AND (" + res.selection + ") ";
+            case URI_TYPE_SPEAKING_EVENT:
+                res.table = SpeakingEventColumns.TABLE_NAME;
+                res.orderBy = SpeakingEventColumns.DEFAULT_ORDER;
+                break;
+
             default:
                 throw new IllegalArgumentException("The uri '" + uri + "' is not supported by this ContentProvider");
         }
@@ -472,4 +913,38 @@ public class ScrumChatterProvider extends ContentProvider {
 
         return res;
     }
+
+    /**
+     * @return the SQL which {@link #query(Uri, String[], String, String[], String)} runs for the given uri, selection and
+     * sort order, with all the columns.
+     */
+    @VisibleForTesting
+    static String buildQuery(Uri uri, String selection, String sortOrder) {
+        QueryParams queryParams = getQueryParams(uri, selection);
+        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+        qb.setTables(queryParams.table);
+        return qb.buildQuery(null, queryParams.selection, null, null, sortOrder == null ? queryParams.orderBy : sortOrder, null);
+    }
+
+    /**
+     * @return the join of the member, meeting_member, and meeting tables.
+     */
+    private static String getMeetingMemberJoin() {
+        return MemberColumns.TABLE_NAME + " LEFT OUTER JOIN " + MeetingMemberColumns.TABLE_NAME + " ON " + MemberColumns.TABLE_NAME + "."
+                + MemberColumns._ID + " = " + MeetingMemberColumns.TABLE_NAME + "." + MeetingMemberColumns.MEMBER_ID + " LEFT OUTER JOIN "
+                + MeetingColumns.TABLE_NAME + " ON " + MeetingColumns.TABLE_NAME + "." + MeetingColumns._ID + " = " + MeetingMemberColumns.TABLE_NAME
+                + "." + MeetingMemberColumns.MEETING_ID;
+    }
+
+    /**
+     * @param teamIdColumn the column containing the team id, in the table for the given uri.
+     * @param uri a uri of the form team/#/table
+     * @return the given selection, restricted to the team in the uri.
+     */
+    private static String appendTeamSelection(String teamIdColumn, Uri uri, String selection) {
+        String teamId = uri.getPathSegments().get(1);
+        String teamSelection = teamIdColumn + "=" + teamId;
+        if (selection != null) return teamSelection + " AND (" + selection + ")";
+        return teamSelection;
+    }
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.provider;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Table, column names, and column types (enums) for the speaking_event table.
+ *
+ * This table is a journal of the meetings: a row is added every time a member starts or stops talking, and rows are
+ * never changed.  The duration and talk start time of the meeting_member table are updated from each new row, by a trigger.
+ */
+public class SpeakingEventColumns implements BaseColumns {
+    static final String TABLE_NAME = "speaking_event";
+    /**
+     * The events of all the meetings.  Append a meeting id to read the events of one meeting.
+     */
+    public static final Uri CONTENT_URI = Uri.parse(ScrumChatterProvider.CONTENT_URI_BASE + "/" + TABLE_NAME);
+
+    public static final String MEETING_ID = "meeting_id";
+    public static final String MEMBER_ID = "member_id";
+    public static final String EVENT_TYPE = "event_type";
+    /**
+     * Read from the {@link ca.rmen.android.scrumchatter.util.Clock}, in milliseconds since 1970.
+     */
+    public static final String EVENT_TIME = "event_time";
+
+    static final String DEFAULT_ORDER = MEETING_ID + ", " + EVENT_TIME + ", " + _ID;
+
+    public enum EventType {
+        START, STOP
+    }
+}
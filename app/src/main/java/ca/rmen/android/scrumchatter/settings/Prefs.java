@@ -38,6 +38,12 @@ public final class Prefs {
     }
 
     static final String PREF_THEME = "PREF_THEME";
+    // The state of the incremental backup file, to know if we can append to it.
+    private static final String PREF_BACKUP_LENGTH = "PREF_BACKUP_LENGTH";
+    private static final String PREF_BACKUP_BASE_LENGTH = "PREF_BACKUP_BASE_LENGTH";
+    private static final String PREF_BACKUP_MARK = "PREF_BACKUP_MARK";
+    private static final String PREF_BACKUP_MEETING_COUNT = "PREF_BACKUP_MEETING_COUNT";
+    private static final String PREF_BACKUP_DATABASE_VERSION = "PREF_BACKUP_DATABASE_VERSION";
     private static final String TAG = Constants.TAG + "/" + Prefs.class.getSimpleName();
 
     private static Prefs INSTANCE;
@@ -75,6 +81,64 @@ public final class Prefs {
         mPrefs.edit().putInt(Constants.PREF_TEAM_ID, teamId).apply();
     }
 
+    /**
+     * @return the length of the backup file when we last wrote to it, or 0 if there is no backup to append to.
+     */
+    public long getBackupLength() {
+        return mPrefs.getLong(PREF_BACKUP_LENGTH, 0);
+    }
+
+    /**
+     * @return the length of the first segment of the backup file, which has all the data.
+     */
+    public long getBackupBaseLength() {
+        return mPrefs.getLong(PREF_BACKUP_BASE_LENGTH, 0);
+    }
+
+    /**
+     * @return the id of the last meeting written to the backup file which won't change anymore.
+     */
+    public long getBackupMark() {
+        return mPrefs.getLong(PREF_BACKUP_MARK, 0);
+    }
+
+    /**
+     * @return the number of meetings up to the mark, when we last wrote to the backup file.
+     */
+    public int getBackupMeetingCount() {
+        return mPrefs.getInt(PREF_BACKUP_MEETING_COUNT, 0);
+    }
+
+    /**
+     * @return the version of the database when we last wrote to the backup file.
+     */
+    public int getBackupDatabaseVersion() {
+        return mPrefs.getInt(PREF_BACKUP_DATABASE_VERSION, 0);
+    }
+
+    public void setBackupState(long length, long baseLength, long mark, int meetingCount, int databaseVersion) {
+        mPrefs.edit()
+                .putLong(PREF_BACKUP_LENGTH, length)
+                .putLong(PREF_BACKUP_BASE_LENGTH, baseLength)
+                .putLong(PREF_BACKUP_MARK, mark)
+                .putInt(PREF_BACKUP_MEETING_COUNT, meetingCount)
+                .putInt(PREF_BACKUP_DATABASE_VERSION, databaseVersion)
+                .apply();
+    }
+
+    /**
+     * The next backup will start again with all the data.
+     */
+    public void clearBackupState() {
+        mPrefs.edit()
+                .remove(PREF_BACKUP_LENGTH)
+                .remove(PREF_BACKUP_BASE_LENGTH)
+                .remove(PREF_BACKUP_MARK)
+                .remove(PREF_BACKUP_MEETING_COUNT)
+                .remove(PREF_BACKUP_DATABASE_VERSION)
+                .apply();
+    }
+
     @NonNull
     public Theme getTheme() {
         String themeName = mPrefs.getString(PREF_THEME, Theme.Light.name());
@@ -35,6 +35,7 @@ import ca.rmen.android.scrumchatter.Constants;
 import ca.rmen.android.scrumchatter.R;
 import ca.rmen.android.scrumchatter.dialog.DialogFragmentFactory;
 import ca.rmen.android.scrumchatter.dialog.InputDialogFragment.InputValidator;
+import ca.rmen.android.scrumchatter.meeting.detail.Meeting;
 import ca.rmen.android.scrumchatter.provider.TeamColumns;
 import ca.rmen.android.scrumchatter.settings.Prefs;
 import ca.rmen.android.scrumchatter.util.Log;
@@ -192,6 +193,8 @@ public class Teams {
     public void deleteTeam(final Uri teamUri) {
         Log.v(TAG, "deleteTeam, uri = " + teamUri);
         Schedulers.io().scheduleDirect(() -> {
+            // The meetings of this team are deleted with it.
+            Meeting.discardSessions();
             // delete this team
             mActivity.getContentResolver().delete(teamUri, null, null);
             // pick another current team
@@ -48,7 +48,8 @@ public class TeamsObserver {
 
     public void register() {
         Prefs.getInstance(mContext).register(mSharedPrefsListener);
-        mContext.getContentResolver().registerContentObserver(TeamColumns.CONTENT_URI, true, mContentObserver);
+        // Only observe the team table itself, not the meetings and members below each team.
+        mContext.getContentResolver().registerContentObserver(TeamColumns.CONTENT_URI, false, mContentObserver);
 
     }
 
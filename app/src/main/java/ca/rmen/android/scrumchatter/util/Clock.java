@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.util;
+
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+
+/**
+ * The time used to date and measure meetings and speaking times.
+ *
+ * {@link #now()} is the wall clock, {@link System#currentTimeMillis()}: the times which are stored, like the meeting
+ * dates and the start and stop times of the turns, are read from it, so that they can be compared across process
+ * restarts.  The wall clock can jump when it is changed, by the user or by a network time update, so an interval which
+ * starts and ends in the same process is measured with {@link #elapsedRealtime()} instead, which never jumps.
+ */
+public class Clock {
+
+    /**
+     * The sources of time the clock is built on.  Tests can provide their own.
+     */
+    public interface TimeSource {
+        long currentTimeMillis();
+
+        long elapsedRealtime();
+    }
+
+    private static final TimeSource SYSTEM_TIME_SOURCE = new TimeSource() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    private static Clock sInstance;
+
+    private final TimeSource mTimeSource;
+
+    @VisibleForTesting
+    public Clock(TimeSource timeSource) {
+        mTimeSource = timeSource;
+    }
+
+    public static synchronized Clock getInstance() {
+        if (sInstance == null) sInstance = new Clock(SYSTEM_TIME_SOURCE);
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    public static synchronized void setInstance(Clock clock) {
+        sInstance = clock;
+    }
+
+    /**
+     * @return the time, in milliseconds since 1970.
+     */
+    public long now() {
+        return mTimeSource.currentTimeMillis();
+    }
+
+    /**
+     * @return the time since boot, in milliseconds.  Only meaningful within one process, compared to another value of
+     * this method.
+     */
+    public long elapsedRealtime() {
+        return mTimeSource.elapsedRealtime();
+    }
+
+    /**
+     * @return the time elapsed since the given time, read from {@link #now()}, in milliseconds.  Never negative.
+     */
+    public long since(long time) {
+        return Math.max(0, now() - time);
+    }
+}
@@ -18,6 +18,9 @@
  */
 package ca.rmen.android.scrumchatter.util;
 
+import android.os.SystemClock;
+
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -25,36 +28,174 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import ca.rmen.android.scrumchatter.Constants;
 
 public class IOUtils {
     private static final String TAG = Constants.TAG + "/" + IOUtils.class.getSimpleName();
 
+    // The maximum number of bytes to transfer between two file channels in one call.
+    private static final long TRANSFER_CHUNK_SIZE = 16 * 1024 * 1024;
+    // For streams which aren't files, we copy through a direct buffer of this size.
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final String TEMP_SUFFIX = ".part";
+
+    // Direct buffers are expensive to allocate: we reuse them.
+    private static final ConcurrentLinkedQueue<ByteBuffer> sBufferPool = new ConcurrentLinkedQueue<>();
+
     public static boolean copy(File from, File to) {
         try {
-            InputStream is = new FileInputStream(from);
-            OutputStream os = new FileOutputStream(to);
-            return copy(is, os);
+            FileInputStream is = new FileInputStream(from);
+            return copy(is, to, true);
         } catch (FileNotFoundException e) {
             Log.v(TAG, "Could not copy file: " + e.getMessage(), e);
             return false;
         }
     }
 
-    public static boolean copy(InputStream is, OutputStream os) {
+    /**
+     * Copy the stream to the given file, and close the stream.  The data is first written to a temporary file, which is
+     * synced to the disk and then renamed to the given file: the file never contains partial data.
+     */
+    public static boolean copy(InputStream is, File to) {
+        return copy(is, to, false);
+    }
+
+    /**
+     * @param isFile true if the stream is a {@link FileInputStream} of a regular file, which can be transferred by its channel.
+     */
+    private static boolean copy(InputStream is, File to, boolean isFile) {
+        File tempFile = new File(to.getParentFile(), to.getName() + TEMP_SUFFIX);
+        FileOutputStream os = null;
         try {
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = is.read(buffer)) > 0) {
-                os.write(buffer, 0, len);
-            }
-            is.close();
+            long startTime = SystemClock.elapsedRealtime();
+            os = new FileOutputStream(tempFile);
+            long size = isFile ? transferFile((FileInputStream) is, os) : transfer(is, os);
+            os.flush();
+            os.getFD().sync();
             os.close();
+            os = null;
+            if (!tempFile.renameTo(to)) throw new IOException("Couldn't rename " + tempFile + " to " + to);
+            long duration = SystemClock.elapsedRealtime() - startTime;
+            Log.v(TAG, "Copied " + size + " bytes to " + to + " in " + duration + "ms (" + (size / Math.max(duration, 1)) + " KB/s)");
+            return true;
+        } catch (IOException e) {
+            Log.v(TAG, "Could not copy stream to " + to + ": " + e.getMessage(), e);
+            if (tempFile.exists() && !tempFile.delete()) Log.v(TAG, "Couldn't delete " + tempFile);
+            return false;
+        } finally {
+            closeSilently(is);
+            closeSilently(os);
+        }
+    }
+
+    /**
+     * Append the given file to the other one, and sync it to the disk.  If this fails, the other file is truncated back to
+     * its original length: it never ends with partial data.
+     */
+    public static boolean append(File from, File to) {
+        long length = to.length();
+        FileInputStream is = null;
+        FileOutputStream os = null;
+        try {
+            long startTime = SystemClock.elapsedRealtime();
+            is = new FileInputStream(from);
+            os = new FileOutputStream(to, true);
+            long size = transferFile(is, os);
+            os.flush();
+            os.getFD().sync();
+            long duration = SystemClock.elapsedRealtime() - startTime;
+            Log.v(TAG, "Appended " + size + " bytes to " + to + " in " + duration + "ms");
+            return true;
+        } catch (IOException e) {
+            Log.v(TAG, "Could not append " + from + " to " + to + ": " + e.getMessage(), e);
+            if (os != null) {
+                try {
+                    os.getChannel().truncate(length);
+                } catch (IOException e2) {
+                    Log.v(TAG, "Could not truncate " + to + ": " + e2.getMessage(), e2);
+                }
+            }
+            return false;
+        } finally {
+            closeSilently(is);
+            closeSilently(os);
+        }
+    }
+
+    public static boolean copy(InputStream is, OutputStream os) {
+        try {
+            transfer(is, os);
             return true;
         } catch (IOException e) {
             Log.v(TAG, "Could not copy stream: " + e.getMessage(), e);
             return false;
+        } finally {
+            closeSilently(is);
+            closeSilently(os);
+        }
+    }
+
+    /**
+     * Copy a regular file to another file.  The data is transferred by the file channels, without going through our memory.
+     *
+     * Only use this for streams we opened on a {@link File}: the streams of content uris are often {@link FileInputStream}s
+     * on pipes, which the file channels can't read from.
+     *
+     * @return the number of bytes copied.
+     */
+    private static long transferFile(FileInputStream is, FileOutputStream os) throws IOException {
+        FileChannel in = is.getChannel();
+        FileChannel out = os.getChannel();
+        // transferFrom returns 0 at the end of the input.
+        long startPosition = out.position();
+        long position = startPosition;
+        long transferred;
+        while ((transferred = out.transferFrom(in, position, TRANSFER_CHUNK_SIZE)) > 0) {
+            position += transferred;
+        }
+        out.position(position);
+        return position - startPosition;
+    }
+
+    /**
+     * Copy the input stream to the output stream, through a pooled direct buffer.  This works for any stream, including pipes.
+     *
+     * @return the number of bytes copied.
+     */
+    private static long transfer(InputStream is, OutputStream os) throws IOException {
+        ReadableByteChannel in = Channels.newChannel(is);
+        WritableByteChannel out = Channels.newChannel(os);
+        ByteBuffer buffer = sBufferPool.poll();
+        if (buffer == null) buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try {
+            long size = 0;
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    size += out.write(buffer);
+                }
+                buffer.clear();
+            }
+            return size;
+        } finally {
+            buffer.clear();
+            sBufferPool.offer(buffer);
+        }
+    }
+
+    private static void closeSilently(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.v(TAG, "Could not close " + closeable + ": " + e.getMessage(), e);
         }
     }
 
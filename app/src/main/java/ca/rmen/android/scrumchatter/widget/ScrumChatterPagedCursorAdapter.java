@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.widget;
+
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import ca.rmen.android.scrumchatter.Constants;
+import ca.rmen.android.scrumchatter.util.Log;
+import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * A cursor adapter which reads its rows one page at a time.  The first page is given with {@link #changeCursor(Cursor)}.
+ * The following pages are read in the background, with the {@link PageLoader}, when the list is scrolled near the last row.
+ *
+ * The adapter owns the following pages and closes them, but not the first page.
+ */
+public abstract class ScrumChatterPagedCursorAdapter<T extends RecyclerView.ViewHolder> extends ScrumChatterCursorAdapter<T> {
+    private static final String TAG = Constants.TAG + "/" + ScrumChatterPagedCursorAdapter.class.getSimpleName();
+
+    public interface PageLoader {
+        /**
+         * Called on the main thread.
+         *
+         * @param lastRow the cursor, positioned on the last row read so far.  It must be read right away, as it may move afterwards.
+         * @return a task, which will be run on a background thread, to read the page after this row.
+         */
+        Callable<Cursor> getPageAfter(Cursor lastRow);
+
+        /**
+         * Called on the main thread, after a page has been added to the adapter.
+         *
+         * @param itemCount the number of rows read so far.
+         */
+        void onPageLoaded(int itemCount);
+    }
+
+    private final PageLoader mPageLoader;
+    private final int mPageSize;
+    private final List<Cursor> mPages = new ArrayList<>();
+    private boolean mIsLoading;
+    private boolean mIsLastPageLoaded;
+    // Incremented every time the first page changes, to ignore the pages which were read for the previous first page.
+    private int mGeneration;
+
+    protected ScrumChatterPagedCursorAdapter(PageLoader pageLoader, int pageSize) {
+        mPageLoader = pageLoader;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Replace all the rows with the given first page.
+     */
+    @Override
+    public void changeCursor(Cursor cursor) {
+        mGeneration++;
+        mIsLoading = false;
+        // The first page isn't ours, but the following ones are.
+        for (int i = 1; i < mPages.size(); i++) {
+            mPages.get(i).close();
+        }
+        mPages.clear();
+        if (cursor != null) mPages.add(cursor);
+        mIsLastPageLoaded = cursor == null || cursor.getCount() < mPageSize;
+        super.changeCursor(cursor);
+    }
+
+    @Override
+    public void onBindViewHolder(T holder, int position, List<Object> payloads) {
+        if (position >= getItemCount() - mPageSize / 2) loadNextPage();
+        super.onBindViewHolder(holder, position, payloads);
+    }
+
+    private void loadNextPage() {
+        if (mIsLoading || mIsLastPageLoaded) return;
+        Cursor cursor = getCursor();
+        if (cursor == null || !cursor.moveToLast()) return;
+        mIsLoading = true;
+        final int generation = mGeneration;
+        Log.v(TAG, "loadNextPage after " + getItemCount() + " rows");
+        Single.fromCallable(mPageLoader.getPageAfter(cursor))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(page -> {
+                            if (generation != mGeneration) {
+                                page.close();
+                                return;
+                            }
+                            addPage(page);
+                        },
+                        throwable -> {
+                            Log.w(TAG, "Couldn't load the next page: " + throwable.getMessage(), throwable);
+                            if (generation == mGeneration) mIsLoading = false;
+                        });
+    }
+
+    private void addPage(Cursor page) {
+        mIsLoading = false;
+        mIsLastPageLoaded = page.getCount() < mPageSize;
+        if (page.getCount() == 0) {
+            page.close();
+            return;
+        }
+        mPages.add(page);
+        super.changeCursor(new MergeCursor(mPages.toArray(new Cursor[mPages.size()])));
+        mPageLoader.onPageLoaded(getItemCount());
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.meeting.detail;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LiveMeetingSessionTest {
+
+    private static final long START_TIME = 1500000000000L;
+    private static final long START_ELAPSED_REALTIME = 60000;
+    private static final long ONE_HOUR = 3600000;
+
+    @Test
+    public void testTurnOfThisSession() {
+        assertEquals(1250, LiveMeetingSession.getTurnDuration(START_TIME, START_ELAPSED_REALTIME,
+                START_TIME + 1250, START_ELAPSED_REALTIME + 1250));
+    }
+
+    @Test
+    public void testTurnOfThisSessionIgnoresWallClockChanges() {
+        // The wall clock was moved forward, then back, during the turn.
+        assertEquals(1250, LiveMeetingSession.getTurnDuration(START_TIME, START_ELAPSED_REALTIME,
+                START_TIME + ONE_HOUR + 1250, START_ELAPSED_REALTIME + 1250));
+        assertEquals(1250, LiveMeetingSession.getTurnDuration(START_TIME, START_ELAPSED_REALTIME,
+                START_TIME - ONE_HOUR + 1250, START_ELAPSED_REALTIME + 1250));
+    }
+
+    @Test
+    public void testTurnOfAnotherProcess() {
+        // The turn started before the session was created: only its start date is known.
+        assertEquals(90000, LiveMeetingSession.getTurnDuration(START_TIME, 0, START_TIME + 90000, 5000));
+    }
+
+    @Test
+    public void testTurnOfAnotherProcessIsNeverNegative() {
+        assertEquals(0, LiveMeetingSession.getTurnDuration(START_TIME, 0, START_TIME - ONE_HOUR, 5000));
+    }
+}
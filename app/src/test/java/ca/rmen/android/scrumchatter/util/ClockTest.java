@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013-2017 Carmen Alvarez
+ *
+ * This file is part of Scrum Chatter.
+ *
+ * Scrum Chatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scrum Chatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scrum Chatter. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.android.scrumchatter.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ClockTest {
+
+    private static final long START_TIME = 1500000000000L;
+    private static final long START_ELAPSED_REALTIME = 60000;
+
+    private FakeTimeSource mTimeSource;
+    private Clock mClock;
+
+    @Before
+    public void setUp() {
+        mTimeSource = new FakeTimeSource(START_TIME, START_ELAPSED_REALTIME);
+        mClock = new Clock(mTimeSource);
+    }
+
+    @Test
+    public void testNowFollowsTheWallClock() {
+        assertEquals(START_TIME, mClock.now());
+        mTimeSource.advance(1500);
+        assertEquals(START_TIME + 1500, mClock.now());
+        // The wall clock is corrected, by the user or a network time update: the dates follow the correction.
+        mTimeSource.currentTimeMillis += 3600000;
+        assertEquals(START_TIME + 1500 + 3600000, mClock.now());
+    }
+
+    @Test
+    public void testElapsedRealtimeIgnoresTheWallClock() {
+        assertEquals(START_ELAPSED_REALTIME, mClock.elapsedRealtime());
+        mTimeSource.advance(250);
+        mTimeSource.currentTimeMillis -= 3600000;
+        assertEquals(START_ELAPSED_REALTIME + 250, mClock.elapsedRealtime());
+    }
+
+    @Test
+    public void testSince() {
+        long time = mClock.now();
+        mTimeSource.advance(1234);
+        assertEquals(1234, mClock.since(time));
+    }
+
+    @Test
+    public void testSinceIsNeverNegative() {
+        long time = mClock.now();
+        mTimeSource.currentTimeMillis -= 10000;
+        assertEquals(0, mClock.since(time));
+    }
+
+    @Test
+    public void testSetInstance() {
+        Clock.setInstance(mClock);
+        try {
+            assertEquals(START_TIME, Clock.getInstance().now());
+        } finally {
+            Clock.setInstance(null);
+        }
+    }
+
+    private static class FakeTimeSource implements Clock.TimeSource {
+        long currentTimeMillis;
+        long elapsedRealtime;
+
+        FakeTimeSource(long currentTimeMillis, long elapsedRealtime) {
+            this.currentTimeMillis = currentTimeMillis;
+            this.elapsedRealtime = elapsedRealtime;
+        }
+
+        /**
+         * Let some time pass, on both clocks.
+         */
+        void advance(long millis) {
+            currentTimeMillis += millis;
+            elapsedRealtime += millis;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return currentTimeMillis;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return elapsedRealtime;
+        }
+    }
+}